@@ -0,0 +1,135 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the core API benchmarks headless and prints the time per operation of
+ * each. Arguments, if any, select the benchmarks whose names contain one of
+ * them. The following system properties tune the run:
+ *
+ * <ul>
+ *   <li><code>bench.warmupRounds</code> (default 5)</li>
+ *   <li><code>bench.rounds</code> (default 10)</li>
+ *   <li><code>bench.roundMillis</code> (default 500)</li>
+ * </ul>
+ *
+ * <p>Run with the same JVM flags on the same machine to compare results.
+ */
+public final class BenchmarkRunner {
+
+  private static final int WARMUP_ROUNDS = Integer.getInteger("bench.warmupRounds", 5);
+  private static final int ROUNDS = Integer.getInteger("bench.rounds", 10);
+  private static final long ROUND_NANOS =
+      Integer.getInteger("bench.roundMillis", 500) * 1000000L;
+
+  // Consumes the results of every run so that none can be optimized away.
+  private static volatile long sink;
+
+  private BenchmarkRunner() {}
+
+  public static void main(String[] args) throws Exception {
+    System.setProperty("java.awt.headless", "true");
+
+    List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+    benchmarks.add(new ResolverDispatchBenchmark());
+    benchmarks.add(new FacetLookupBenchmark());
+    benchmarks.add(new MimeFacetRegistryBenchmark());
+    benchmarks.add(new ViewSelectionBenchmark());
+    benchmarks.add(new UrlUtilitiesBenchmark());
+
+    System.out.println(String.format(
+        "%-40s %12s %12s %14s", "benchmark", "ns/op", "+/-", "ops/s"));
+
+    for (Benchmark benchmark : benchmarks) {
+      if (isSelected(benchmark, args)) {
+        measure(benchmark);
+      }
+    }
+  }
+
+  private static boolean isSelected(Benchmark benchmark, String[] args) {
+    if (args.length == 0) return true;
+    for (String arg : args) {
+      if (benchmark.getName().contains(arg)) return true;
+    }
+    return false;
+  }
+
+  private static void measure(Benchmark benchmark) throws Exception {
+    benchmark.setUp();
+
+    // Find a batch size that takes about a millisecond, so that reading the
+    // clock does not dominate the measurement.
+    int batch = 1;
+    while (batch < (1 << 24) && time(benchmark, batch) < 1000000L) {
+      batch *= 2;
+    }
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      round(benchmark, batch);
+    }
+
+    double[] nanosPerOp = new double[ROUNDS];
+    for (int i = 0; i < ROUNDS; i++) {
+      nanosPerOp[i] = round(benchmark, batch);
+    }
+
+    double mean = 0;
+    for (double x : nanosPerOp) mean += x;
+    mean /= ROUNDS;
+
+    double variance = 0;
+    for (double x : nanosPerOp) variance += (x - mean) * (x - mean);
+    double stddev = (ROUNDS > 1) ? Math.sqrt(variance / (ROUNDS - 1)) : 0;
+
+    System.out.println(String.format(
+        "%-40s %12.1f %12.1f %14.0f",
+        benchmark.getName(), mean, stddev, 1e9 / mean));
+  }
+
+  private static double round(Benchmark benchmark, int batch) {
+    long operations = 0;
+    long elapsed = 0;
+    while (elapsed < ROUND_NANOS) {
+      elapsed += time(benchmark, batch);
+      operations += batch;
+    }
+    return (double)elapsed / operations;
+  }
+
+  private static long time(Benchmark benchmark, int operations) {
+    long start = System.nanoTime();
+    sink += benchmark.run(operations);
+    return System.nanoTime() - start;
+  }
+}
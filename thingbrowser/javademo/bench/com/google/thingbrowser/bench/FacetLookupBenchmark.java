@@ -0,0 +1,83 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.thingbrowser.api.Facet;
+import com.google.thingbrowser.api.Thing;
+
+/**
+ * Measures lookup of already created Facets with AbstractThing.getFacet, on
+ * 5000 Things with 4 Facet types each.
+ */
+class FacetLookupBenchmark extends Benchmark {
+
+  private static final int THINGS = 5000;
+  private static final int FACETS_PER_THING = 4;
+
+  private Thing[] things;
+  private List<List<Class<? extends Facet>>> facetTypes;
+
+  FacetLookupBenchmark() {
+    super("AbstractThing.getFacet");
+  }
+
+  public void setUp() {
+    Synthetic.Context context = new Synthetic.Context();
+    things = new Thing[THINGS];
+    facetTypes = new ArrayList<List<Class<? extends Facet>>>(THINGS);
+
+    for (int i = 0; i < THINGS; i++) {
+      List<Class<? extends Facet>> types =
+        new ArrayList<Class<? extends Facet>>(FACETS_PER_THING);
+      for (int j = 0; j < FACETS_PER_THING; j++) {
+        types.add(Synthetic.FACET_TYPES.get((i + j * 3) % Synthetic.FACET_TYPES.size()));
+      }
+      facetTypes.add(types);
+      things[i] = new Synthetic.SyntheticThing(
+          context, Synthetic.url("http://example.com/thing" + i), null, types);
+      for (Class<? extends Facet> clazz : types) {
+        things[i].getFacet(clazz);
+      }
+    }
+  }
+
+  public long run(int operations) {
+    long result = 0;
+    for (int i = 0; i < operations; i++) {
+      int thing = i % THINGS;
+      Facet facet = things[thing].getFacet(facetTypes.get(thing).get(i % FACETS_PER_THING));
+      if (facet != null) result++;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.bench;
+
+import com.google.thingbrowser.api.MimeFacetRegistry;
+import com.google.thingbrowser.api.Thing;
+
+/**
+ * Measures MimeFacetRegistry.getFacetTypes with 300 factories for 100 MIME
+ * types, on 5000 Things.
+ */
+class MimeFacetRegistryBenchmark extends Benchmark {
+
+  private static final int MIME_TYPES = 100;
+  private static final int FACTORIES_PER_MIME_TYPE = 3;
+  private static final int THINGS = 5000;
+
+  private MimeFacetRegistry registry;
+  private Thing[] things;
+
+  MimeFacetRegistryBenchmark() {
+    super("MimeFacetRegistry.getFacetTypes");
+  }
+
+  public void setUp() {
+    Synthetic.Context context = new Synthetic.Context();
+    registry = context.getMimeFacetRegistry();
+
+    for (int i = 0; i < MIME_TYPES; i++) {
+      for (int j = 0; j < FACTORIES_PER_MIME_TYPE; j++) {
+        registry.registerFactory(new Synthetic.SyntheticMimeFacetFactory(
+            "application/x-type" + i,
+            "ext" + i,
+            Synthetic.FACET_TYPES.get((i + j) % Synthetic.FACET_TYPES.size())));
+      }
+    }
+
+    things = new Thing[THINGS];
+    for (int i = 0; i < THINGS; i++) {
+      int type = i % MIME_TYPES;
+      // Half of the Things are found by MIME type, half by extension.
+      things[i] = new Synthetic.SyntheticThing(
+          context,
+          Synthetic.url("http://example.com/file" + i + ".ext" + type),
+          (i % 2 == 0) ? "application/x-type" + type + "; charset=UTF-8" : "text/plain");
+    }
+  }
+
+  public long run(int operations) {
+    long result = 0;
+    for (int i = 0; i < operations; i++) {
+      result += registry.getFacetTypes(things[i % THINGS]).size();
+    }
+    return result;
+  }
+}
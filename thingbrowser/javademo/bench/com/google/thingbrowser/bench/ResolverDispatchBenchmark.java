@@ -0,0 +1,87 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.bench;
+
+import java.net.URL;
+
+import com.google.thingbrowser.api.ThingContext;
+
+/**
+ * Measures dispatch of URLs to resolvers by the resolver registry, with 500
+ * resolvers whose root URLs overlap on 50 hosts.
+ */
+class ResolverDispatchBenchmark extends Benchmark {
+
+  private static final int HOSTS = 50;
+  private static final int RESOLVERS = 500;
+  private static final int THINGS = 5000;
+
+  private ThingContext context;
+  private URL[] urls;
+
+  ResolverDispatchBenchmark() {
+    super("ThingResolverRegistry.getThing");
+  }
+
+  public void setUp() {
+    Synthetic.Context context = new Synthetic.Context();
+    Synthetic.SyntheticResolver[] resolvers = new Synthetic.SyntheticResolver[RESOLVERS];
+
+    for (int i = 0; i < RESOLVERS; i++) {
+      // Every tenth resolver is nested inside the one before it, so that
+      // longest-prefix matching matters.
+      String root = (i % 10 == 9)
+          ? resolvers[i - 1].getRootUrl().toExternalForm() + "nested/"
+          : "http://host" + (i % HOSTS) + ".example.com/app" + i + "/";
+      resolvers[i] = new Synthetic.SyntheticResolver(Synthetic.url(root));
+      context.getThingResolverRegistry().registerResolver(resolvers[i]);
+    }
+
+    urls = new URL[THINGS];
+    for (int i = 0; i < THINGS; i++) {
+      Synthetic.SyntheticResolver resolver = resolvers[i % RESOLVERS];
+      urls[i] = Synthetic.url(
+          resolver.getRootUrl().toExternalForm() + "items/item" + i + "?view=full");
+      resolver.add(new Synthetic.SyntheticThing(context, urls[i], null));
+    }
+
+    this.context = context;
+  }
+
+  public long run(int operations) {
+    long result = 0;
+    for (int i = 0; i < operations; i++) {
+      if (context.getThingResolverRegistry().getThing(context, urls[i % THINGS]) != null) {
+        result++;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,332 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.bench;
+
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.thingbrowser.api.AbstractThing;
+import com.google.thingbrowser.api.Facet;
+import com.google.thingbrowser.api.MimeFacetFactory;
+import com.google.thingbrowser.api.MimeFacetRegistry;
+import com.google.thingbrowser.api.MimeResourceFacet;
+import com.google.thingbrowser.api.Thing;
+import com.google.thingbrowser.api.ThingContext;
+import com.google.thingbrowser.api.ThingNavigationListener;
+import com.google.thingbrowser.api.ThingResolver;
+import com.google.thingbrowser.api.ThingResolverRegistry;
+import com.google.thingbrowser.api.ThingView;
+import com.google.thingbrowser.api.ThingViewFactory;
+import com.google.thingbrowser.api.ThingViewRegistry;
+import com.google.thingbrowser.api.ViewFormat;
+import com.google.thingbrowser.api.impl.MimeFacetRegistryImpl;
+import com.google.thingbrowser.api.impl.ThingResolverRegistryImpl;
+import com.google.thingbrowser.api.impl.ThingViewRegistryImpl;
+
+/**
+ * Synthetic Things, Facets, resolvers and factories for the benchmarks. None
+ * of them touch the network or create Swing components.
+ */
+final class Synthetic {
+
+  interface F0 extends Facet {}
+  interface F1 extends Facet {}
+  interface F2 extends Facet {}
+  interface F3 extends Facet {}
+  interface F4 extends Facet {}
+  interface F5 extends Facet {}
+  interface F6 extends Facet {}
+  interface F7 extends Facet {}
+  interface F8 extends Facet {}
+  interface F9 extends Facet {}
+  interface F10 extends Facet {}
+  interface F11 extends Facet {}
+  interface F12 extends Facet {}
+  interface F13 extends Facet {}
+  interface F14 extends Facet {}
+  interface F15 extends Facet {}
+
+  static final List<Class<? extends Facet>> FACET_TYPES;
+
+  static {
+    List<Class<? extends Facet>> types = new ArrayList<Class<? extends Facet>>();
+    for (Class<?> clazz : new Class<?>[] {
+        F0.class, F1.class, F2.class, F3.class, F4.class, F5.class, F6.class, F7.class,
+        F8.class, F9.class, F10.class, F11.class, F12.class, F13.class, F14.class, F15.class,
+    }) {
+      types.add(clazz.asSubclass(Facet.class));
+    }
+    FACET_TYPES = Collections.unmodifiableList(types);
+  }
+
+  private Synthetic() {}
+
+  static URL url(String spec) {
+    try {
+      return new URL(spec);
+    } catch (MalformedURLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return a Facet of the given type, whose methods other than getThing()
+   * do nothing.
+   */
+  static Facet newFacet(final Thing thing, Class<? extends Facet> clazz) {
+    return (Facet)Proxy.newProxyInstance(
+        Synthetic.class.getClassLoader(),
+        new Class<?>[] { clazz },
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getThing")) return thing;
+            if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+            if (method.getName().equals("equals")) return proxy == args[0];
+            return null;
+          }
+        });
+  }
+
+  static class Context implements ThingContext {
+    final ThingResolverRegistry resolverRegistry = new ThingResolverRegistryImpl();
+    final ThingViewRegistry viewRegistry = new ThingViewRegistryImpl();
+    final MimeFacetRegistry mimeFacetRegistry = new MimeFacetRegistryImpl();
+
+    public ThingResolverRegistry getThingResolverRegistry() {
+      return resolverRegistry;
+    }
+
+    public ThingViewRegistry getThingViewRegistry() {
+      return viewRegistry;
+    }
+
+    public MimeFacetRegistry getMimeFacetRegistry() {
+      return mimeFacetRegistry;
+    }
+  }
+
+  /**
+   * A Thing supporting a fixed set of Facet types, and optionally a
+   * MimeResourceFacet reporting a fixed MIME type.
+   */
+  static class SyntheticThing extends AbstractThing {
+    private final String mimeType;
+
+    SyntheticThing(ThingContext context, URL url, String mimeType) {
+      this(context, url, mimeType, Collections.<Class<? extends Facet>>emptyList());
+    }
+
+    SyntheticThing(ThingContext context, URL url, String mimeType,
+        List<Class<? extends Facet>> facetTypes) {
+      super(context, url);
+      this.mimeType = mimeType;
+      for (Class<? extends Facet> clazz : facetTypes) {
+        addFacetType(clazz);
+      }
+      if (mimeType != null) {
+        addFacetType(MimeResourceFacet.class);
+      }
+    }
+
+    protected Facet newFacet(Class<? extends Facet> clazz) {
+      if (clazz == MimeResourceFacet.class) return new SyntheticMimeResourceFacet(this, mimeType);
+      return Synthetic.newFacet(this, clazz);
+    }
+  }
+
+  static class SyntheticMimeResourceFacet implements MimeResourceFacet {
+    private final Thing thing;
+    private final String mimeType;
+
+    SyntheticMimeResourceFacet(Thing thing, String mimeType) {
+      this.thing = thing;
+      this.mimeType = mimeType;
+    }
+
+    public Thing getThing() {
+      return thing;
+    }
+
+    public String getMimeType() {
+      return mimeType;
+    }
+
+    public long getContentLength() {
+      return -1;
+    }
+
+    public InputStream newInputStream() {
+      throw new UnsupportedOperationException();
+    }
+
+    public ByteBuffer getByteBuffer() {
+      throw new UnsupportedOperationException();
+    }
+
+    public File getFile() {
+      throw new UnsupportedOperationException();
+    }
+
+    public void addPropertyChangeListener(PropertyChangeListener l) {}
+    public void removePropertyChangeListener(PropertyChangeListener l) {}
+    public void addPropertyChangeListener(String name, PropertyChangeListener l) {}
+    public void removePropertyChangeListener(String name, PropertyChangeListener l) {}
+  }
+
+  /**
+   * A resolver that hands out one Thing per URL from a preloaded map, so that
+   * only the dispatch to the resolver is measured.
+   */
+  static class SyntheticResolver implements ThingResolver {
+    private final URL rootUrl;
+    private final Map<URL, Thing> thingByUrl = new HashMap<URL, Thing>();
+
+    SyntheticResolver(URL rootUrl) {
+      this.rootUrl = rootUrl;
+    }
+
+    void add(Thing thing) {
+      thingByUrl.put(thing.getUrl(), thing);
+    }
+
+    public URL getRootUrl() {
+      return rootUrl;
+    }
+
+    public Thing getThing(ThingContext thingContext, URL url) {
+      return thingByUrl.get(url);
+    }
+  }
+
+  static class SyntheticMimeFacetFactory implements MimeFacetFactory<Facet> {
+    private final String mimeType;
+    private final String urlExtension;
+    private final Class<? extends Facet> facetClass;
+
+    SyntheticMimeFacetFactory(String mimeType, String urlExtension, Class<? extends Facet> facetClass) {
+      this.mimeType = mimeType;
+      this.urlExtension = urlExtension;
+      this.facetClass = facetClass;
+    }
+
+    public String getMimeType() {
+      return mimeType;
+    }
+
+    public String getUrlExtension() {
+      return urlExtension;
+    }
+
+    public Class<? extends Facet> getFacetClass() {
+      return facetClass;
+    }
+
+    public Facet createFacet(Thing thing) {
+      return Synthetic.newFacet(thing, facetClass);
+    }
+  }
+
+  static class SyntheticViewFactory implements ThingViewFactory {
+    private final ViewFormat format;
+    private final Class<? extends Facet> requiredFacetType;
+    private final double preference;
+
+    SyntheticViewFactory(ViewFormat format, Class<? extends Facet> requiredFacetType, double preference) {
+      this.format = format;
+      this.requiredFacetType = requiredFacetType;
+      this.preference = preference;
+    }
+
+    public ViewFormat getSupportedFormat() {
+      return format;
+    }
+
+    public Class<? extends Facet> getRequiredFacetType() {
+      return requiredFacetType;
+    }
+
+    public double getPreference() {
+      return preference;
+    }
+
+    public ThingView newView(Thing thing) {
+      return new SyntheticView(thing, format);
+    }
+  }
+
+  static class SyntheticView implements ThingView {
+    private final Thing model;
+    private final ViewFormat format;
+    private String fragmentId = null;
+
+    SyntheticView(Thing model, ViewFormat format) {
+      this.model = model;
+      this.format = format;
+    }
+
+    public void initialize() {}
+
+    public Thing getModel() {
+      return model;
+    }
+
+    public ViewFormat getFormat() {
+      return format;
+    }
+
+    public String getFragmentId() {
+      return fragmentId;
+    }
+
+    public void setFragmentId(String fragmentId) {
+      this.fragmentId = fragmentId;
+    }
+
+    public void dispose() {}
+    public void addThingNavigationListener(ThingNavigationListener l) {}
+    public void removeThingNavigationListener(ThingNavigationListener l) {}
+    public void addPropertyChangeListener(PropertyChangeListener l) {}
+    public void removePropertyChangeListener(PropertyChangeListener l) {}
+    public void addPropertyChangeListener(String propertyName, PropertyChangeListener l) {}
+    public void removePropertyChangeListener(String propertyName, PropertyChangeListener l) {}
+  }
+}
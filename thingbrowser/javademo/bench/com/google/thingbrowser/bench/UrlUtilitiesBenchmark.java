@@ -0,0 +1,66 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.bench;
+
+import java.net.URL;
+
+import com.google.thingbrowser.api.UrlUtilities;
+
+/**
+ * Measures UrlUtilities.splitUrlAndFragment on 5000 URLs, half of which have
+ * a fragment identifier.
+ */
+class UrlUtilitiesBenchmark extends Benchmark {
+
+  private static final int URLS = 5000;
+
+  private URL[] urls;
+
+  UrlUtilitiesBenchmark() {
+    super("UrlUtilities.splitUrlAndFragment");
+  }
+
+  public void setUp() {
+    urls = new URL[URLS];
+    for (int i = 0; i < URLS; i++) {
+      String spec = "http://host" + (i % 50) + ".example.com/path/to/item" + i + "?q=" + i;
+      urls[i] = Synthetic.url((i % 2 == 0) ? spec + "#section" + i : spec);
+    }
+  }
+
+  public long run(int operations) {
+    long result = 0;
+    for (int i = 0; i < operations; i++) {
+      Object[] urlAndFragment = UrlUtilities.splitUrlAndFragment(urls[i % URLS]);
+      if (urlAndFragment[1] != null) result++;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.thingbrowser.api.Facet;
+import com.google.thingbrowser.api.Thing;
+import com.google.thingbrowser.api.ThingViewRegistry;
+import com.google.thingbrowser.api.ViewFormat;
+
+/**
+ * Measures ThingViewRegistry.newView with 300 view factories over 16 Facet
+ * types, on 5000 Things with 1 to 4 Facet types each.
+ */
+class ViewSelectionBenchmark extends Benchmark {
+
+  private static final int FACTORIES = 300;
+  private static final int THINGS = 5000;
+
+  private ThingViewRegistry registry;
+  private Thing[] things;
+
+  ViewSelectionBenchmark() {
+    super("ThingViewRegistry.newView");
+  }
+
+  public void setUp() {
+    Synthetic.Context context = new Synthetic.Context();
+    registry = context.getThingViewRegistry();
+    Random random = new Random(42);
+
+    for (int i = 0; i < FACTORIES; i++) {
+      registry.registerFactory(new Synthetic.SyntheticViewFactory(
+          ViewFormat.FULL,
+          Synthetic.FACET_TYPES.get(i % Synthetic.FACET_TYPES.size()),
+          random.nextDouble()));
+    }
+
+    things = new Thing[THINGS];
+    for (int i = 0; i < THINGS; i++) {
+      int count = 1 + random.nextInt(4);
+      List<Class<? extends Facet>> facetTypes = new ArrayList<Class<? extends Facet>>(count);
+      for (int j = 0; j < count; j++) {
+        facetTypes.add(Synthetic.FACET_TYPES.get(random.nextInt(Synthetic.FACET_TYPES.size())));
+      }
+      things[i] = new Synthetic.SyntheticThing(
+          context, Synthetic.url("http://example.com/thing" + i), null, facetTypes);
+    }
+  }
+
+  public long run(int operations) {
+    long result = 0;
+    for (int i = 0; i < operations; i++) {
+      if (registry.newView(ViewFormat.FULL, things[i % THINGS]) != null) {
+        result++;
+      }
+    }
+    return result;
+  }
+}
@@ -51,27 +51,35 @@ public abstract class AbstractFacet implements Facet {
   }
 
   public void addPropertyChangeListener(PropertyChangeListener l) {
-    if (pcs == null) pcs = new PropertyChangeSupport(this);
-    pcs.addPropertyChangeListener(l);
+    getPropertyChangeSupport(true).addPropertyChangeListener(l);
   }
 
   public void removePropertyChangeListener(PropertyChangeListener l) {
+    PropertyChangeSupport pcs = getPropertyChangeSupport(false);
     if (pcs == null) return;
     pcs.removePropertyChangeListener(l);
   }
 
   public void addPropertyChangeListener(String name, PropertyChangeListener l) {
-    if (pcs == null) pcs = new PropertyChangeSupport(this);
-    pcs.addPropertyChangeListener(name, l);
+    getPropertyChangeSupport(true).addPropertyChangeListener(name, l);
   }
 
   public void removePropertyChangeListener(String name, PropertyChangeListener l) {
+    PropertyChangeSupport pcs = getPropertyChangeSupport(false);
     if (pcs == null) return;
     pcs.removePropertyChangeListener(name, l);
   }
 
   protected void firePropertyChange(String name, Object oldValue, Object newValue) {
+    PropertyChangeSupport pcs = getPropertyChangeSupport(false);
     if (pcs == null) return;
-    pcs.firePropertyChange(name, oldValue, newValue);
+    ModelEventBus.getInstance().fire(pcs, this, name, oldValue, newValue);
+  }
+
+  // Facets may be created and used on worker threads, so the lazily created
+  // PropertyChangeSupport must be safely published.
+  private synchronized PropertyChangeSupport getPropertyChangeSupport(boolean create) {
+    if (pcs == null && create) pcs = new PropertyChangeSupport(this);
+    return pcs;
   }
 }
@@ -30,6 +30,9 @@
 package com.google.thingbrowser.api;
 
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -51,8 +54,24 @@ import java.util.Set;
  */
 public abstract class AbstractMimeThing extends AbstractThing {
 
-  private boolean facetTypesUpdated = false;
-  private boolean computingFacetTypes = false;
+  /**
+   * The MimeFacetFactories applicable to this Thing, as of a given version of
+   * the MimeFacetRegistry, and the Facet types they provide.
+   */
+  private static final class Resolution {
+
+    private final int version;
+    private final List<MimeFacetFactory<?>> factories;
+    private final Set<Class<? extends Facet>> facetTypes;
+
+    public Resolution(int version, List<MimeFacetFactory<?>> factories, Set<Class<? extends Facet>> facetTypes) {
+      this.version = version;
+      this.factories = factories;
+      this.facetTypes = facetTypes;
+    }
+  }
+
+  private volatile Resolution resolution = null;
 
   public AbstractMimeThing(ThingContext thingContext, URL url) {
     super(thingContext, url);
@@ -60,29 +79,27 @@ public abstract class AbstractMimeThing extends AbstractThing {
   }
 
   public Set<Class<? extends Facet>> getFacetTypes() {
-    if (computingFacetTypes || facetTypesUpdated) {
-      return super.getFacetTypes();
-    }
-
-    if (!facetTypesUpdated) {
-      computingFacetTypes = true;
-      // TODO(ihab): Should the following be reloaded whenever the MimeFacetRegistry
-      // is updated? How may we do this?
-      for (Class<? extends Facet> clazz : getThingContext().getMimeFacetRegistry().getFacetTypes(this)) {
-        addFacetType(clazz);
-      }
-      facetTypesUpdated = true;
-      computingFacetTypes = false;
-    }
+    return getResolution().facetTypes;
+  }
 
-    return super.getFacetTypes();
+  protected boolean hasFacetType(Class<? extends Facet> clazz) {
+    // Answer for the MimeResourceFacet without consulting the registry, since
+    // the registry needs the MimeResourceFacet to find the other Facet types.
+    return super.getFacetTypes().contains(clazz) || getFacetTypes().contains(clazz);
   }
 
   protected Facet newFacet(Class<? extends Facet> clazz) {
     if (clazz == MimeResourceFacet.class) {
       return newMimeResourceFacet();
     }
-    return getThingContext().getMimeFacetRegistry().newFacet(this, clazz);
+
+    for (MimeFacetFactory<?> factory : getResolution().factories) {
+      if (clazz == factory.getFacetClass()) {
+        return factory.createFacet(this);
+      }
+    }
+
+    return null;
   }
 
   /**
@@ -92,4 +109,35 @@ public abstract class AbstractMimeThing extends AbstractThing {
    * @return a new MimeResourceFacet for this Thing.
    */
   protected abstract MimeResourceFacet newMimeResourceFacet();
+
+  /**
+   * Look up the MimeFacetFactories applicable to this Thing, unless we already
+   * did so since the last change to the MimeFacetRegistry. This way, Facets
+   * provided by modules registered after this Thing was created still appear.
+   * Racing threads may both do the lookup, but will arrive at the same result.
+   */
+  private Resolution getResolution() {
+    MimeFacetRegistry registry = getThingContext().getMimeFacetRegistry();
+    int version = registry.getVersion();
+
+    Resolution current = resolution;
+    if (current != null && current.version == version) {
+      return current;
+    }
+
+    String mimeType = getFacet(MimeResourceFacet.class).getMimeType();
+
+    List<MimeFacetFactory<?>> factories =
+        registry.getFactories(mimeType, UrlUtilities.getExtension(getUrl()));
+
+    Set<Class<? extends Facet>> types =
+        new HashSet<Class<? extends Facet>>(super.getFacetTypes());
+    for (MimeFacetFactory<?> factory : factories) {
+      types.add(factory.getFacetClass());
+    }
+
+    current = new Resolution(version, factories, Collections.unmodifiableSet(types));
+    resolution = current;
+    return current;
+  }
 }
@@ -35,11 +35,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.thingbrowser.api.metrics.Metrics;
 
 /**
  * A simple abstract implementation of <code>Thing</code>.
@@ -48,39 +56,62 @@ import java.util.Set;
  * should call setter methods (such as {@link #setDisplayName(String)}) to
  * set other important information and keep it up to date.
  *
+ * <p>This class is thread safe. The URL, display name, short description and
+ * icon are published together as an immutable snapshot, so reading them never
+ * locks. Each Facet is created at most once, even if several threads ask for
+ * it at the same time.
+ *
  * @author ihab@google.com (Ihab Awad)
  */
 public abstract class AbstractThing implements Thing {
 
+  /**
+   * An immutable snapshot of the descriptive properties of a Thing.
+   */
+  private static final class Metadata {
+
+    private final URL url;
+    private final String displayName;
+    private final String shortDescription;
+    private final byte[] icon;
+
+    public Metadata(URL url, String displayName, String shortDescription, byte[] icon) {
+      this.url = url;
+      this.displayName = displayName;
+      this.shortDescription = shortDescription;
+      this.icon = icon;
+    }
+  }
+
   private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
-  private URL url;
-  private String displayName = null;
-  private String shortDescription = null;
-  private byte[] icon = null;
+  private volatile Metadata metadata;
   private final ThingContext thingContext;
-  private final Set<Class<? extends Facet>> facetTypes =
-    new HashSet<Class<? extends Facet>>();
-  private final Map<Class<? extends Facet>, Facet> facets =
-    new HashMap<Class<? extends Facet>, Facet>();
+  private volatile Set<Class<? extends Facet>> facetTypes =
+    Collections.emptySet();
+  private final ConcurrentMap<Class<? extends Facet>, FutureTask<Facet>> facets =
+    new ConcurrentHashMap<Class<? extends Facet>, FutureTask<Facet>>();
 
   protected AbstractThing(ThingContext thingContext, URL url) {
     this.thingContext = thingContext;
-    this.url = url;
+    this.metadata = new Metadata(url, null, null, null);
   }
 
   public URL getUrl() {
-    return url;
+    return metadata.url;
   }
 
   protected void setUrl(URL url) {
     if (url == null) throw new NullPointerException();
-    Object oldValue = this.url;
-    this.url = url;
-    pcs.firePropertyChange("url", oldValue, url);
+    Object oldValue;
+    synchronized (this) {
+      oldValue = metadata.url;
+      metadata = new Metadata(url, metadata.displayName, metadata.shortDescription, metadata.icon);
+    }
+    firePropertyChange("url", oldValue, url);
   }
 
   public String getDisplayName() {
-    return displayName;
+    return metadata.displayName;
   }
 
   public ThingContext getThingContext() {
@@ -88,37 +119,44 @@ public abstract class AbstractThing implements Thing {
   }
 
   protected void setDisplayName(String displayName) {
-    Object oldValue = this.displayName;
-    this.displayName = displayName;
-    pcs.firePropertyChange("displayName", oldValue, displayName);
+    Object oldValue;
+    synchronized (this) {
+      oldValue = metadata.displayName;
+      metadata = new Metadata(metadata.url, displayName, metadata.shortDescription, metadata.icon);
+    }
+    firePropertyChange("displayName", oldValue, displayName);
   }
 
   public String getShortDescription() {
-    return shortDescription;
+    return metadata.shortDescription;
   }
 
   protected void setShortDescription(String shortDescription) {
-    Object oldValue = this.shortDescription;
-    this.shortDescription = shortDescription;
-    pcs.firePropertyChange("shortDescription", oldValue, shortDescription);
+    Object oldValue;
+    synchronized (this) {
+      oldValue = metadata.shortDescription;
+      metadata = new Metadata(metadata.url, metadata.displayName, shortDescription, metadata.icon);
+    }
+    firePropertyChange("shortDescription", oldValue, shortDescription);
   }
 
   public byte[] getIcon() {
-    return icon;
+    return metadata.icon;
   }
 
-  protected void addFacetType(Class<? extends Facet> clazz) {
-    facetTypes.add(clazz);
+  protected synchronized void addFacetType(Class<? extends Facet> clazz) {
+    Set<Class<? extends Facet>> types = new HashSet<Class<? extends Facet>>(facetTypes);
+    types.add(clazz);
+    facetTypes = Collections.unmodifiableSet(types);
   }
 
   protected void setIcon(byte[] icon) {
-    Object oldValue = this.icon;
-    this.icon = icon;
-    try {
-      pcs.firePropertyChange("icon", oldValue, icon);
-    } catch (Throwable t) {
-      t.printStackTrace(System.err);
+    Object oldValue;
+    synchronized (this) {
+      oldValue = metadata.icon;
+      metadata = new Metadata(metadata.url, metadata.displayName, metadata.shortDescription, icon);
     }
+    firePropertyChange("icon", oldValue, icon);
   }
 
   protected void setIcon(String iconResourcePath) {
@@ -135,8 +173,17 @@ public abstract class AbstractThing implements Thing {
   protected void setIcon(URL url) {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     try {
-      InputStream is = url.openStream();
-      for (int b = is.read(); b != -1; b = is.read()) baos.write(b);
+      FetchScheduler.Permit permit = FetchScheduler.getDefault().acquire(url);
+      try {
+        InputStream is = url.openStream();
+        try {
+          for (int b = is.read(); b != -1; b = is.read()) baos.write(b);
+        } finally {
+          is.close();
+        }
+      } finally {
+        permit.release();
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -144,35 +191,70 @@ public abstract class AbstractThing implements Thing {
   }
 
   public Set<Class<? extends Facet>> getFacetTypes() {
-    return Collections.unmodifiableSet(facetTypes);
+    return facetTypes;
   }
 
   @SuppressWarnings(
       value = "unchecked"
   )
-  public final <T extends Facet> T getFacet(Class<T> clazz) {
-    Facet facet = facets.get(clazz);
+  public final <T extends Facet> T getFacet(final Class<T> clazz) {
+    FutureTask<Facet> task = facets.get(clazz);
 
-    if (facet == null) {
+    if (task == null) {
 
-      if (!getFacetTypes().contains(clazz)) {
+      if (!hasFacetType(clazz)) {
         return null;
       }
 
-      facet = newFacet(clazz);
+      FutureTask<Facet> newTask = new FutureTask<Facet>(new Callable<Facet>() {
+        public Facet call() {
+          long startTime = Metrics.startTimer();
+          Facet facet;
+          try {
+            facet = newFacet(clazz);
+          } finally {
+            Metrics.stopTimer(startTime, "Facet", clazz);
+          }
+          if (facet == null) {
+            String msg =
+                "Thing " + AbstractThing.this +
+                " declared Facet class " + clazz +
+                " but failed to create an instance.";
+            throw new RuntimeException(msg);
+          }
+          return facet;
+        }
+      });
 
-      if (facet == null) {
-        String msg =
-            "Thing " + this +
-            " declared Facet class " + clazz +
-            " but failed to create an instance.";
-        throw new RuntimeException(msg);
+      // Only the thread that installs the task runs it; all others wait.
+      task = facets.putIfAbsent(clazz, newTask);
+      if (task == null) {
+        task = newTask;
+        task.run();
       }
-
-      facets.put(clazz, facet);
     }
 
-    return (T)facet;
+    return (T)waitFor(clazz, task);
+  }
+
+  public <T extends Facet> Future<T> getFacetAsync(Class<T> clazz) {
+    return getFacetAsync(clazz, null);
+  }
+
+  public <T extends Facet> Future<T> getFacetAsync(final Class<T> clazz, AsyncCallback<T> callback) {
+    return ThingExecutors.submit(ThingExecutors.getWorkerExecutor(), new Callable<T>() {
+      public T call() {
+        return getFacet(clazz);
+      }
+    }, callback);
+  }
+
+  public Future<?> prefetchFacets(Set<Class<? extends Facet>> facetTypes) {
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (Class<? extends Facet> clazz : facetTypes) {
+      futures.add(getFacetAsync(clazz));
+    }
+    return new FutureGroup(futures);
   }
   
   public void reload() {
@@ -195,9 +277,44 @@ public abstract class AbstractThing implements Thing {
     pcs.removePropertyChangeListener(name, l);
   }
 
+  /**
+   * Fire a change to a property of this Thing through the
+   * {@link ModelEventBus}, so that listeners are notified on the Swing event
+   * dispatch thread whichever thread made the change.
+   */
   protected void firePropertyChange(String name, Object oldValue, Object newValue) {
-    pcs.firePropertyChange(name, oldValue, newValue);
+    ModelEventBus.getInstance().fire(pcs, this, name, oldValue, newValue);
+  }
+
+  /**
+   * Determine whether this Thing supports a given class of Facet. By default,
+   * this checks whether the class is one of {@link #getFacetTypes()}.
+   * Subclasses may override this to answer more cheaply.
+   */
+  protected boolean hasFacetType(Class<? extends Facet> clazz) {
+    return getFacetTypes().contains(clazz);
   }
 
   protected abstract Facet newFacet(Class<? extends Facet> clazz);
+
+  private Facet waitFor(Class<? extends Facet> clazz, FutureTask<Facet> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          // Forget the failure, so that the next request tries again.
+          facets.remove(clazz, task);
+          if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+          if (e.getCause() instanceof Error) throw (Error)e.getCause();
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
 }
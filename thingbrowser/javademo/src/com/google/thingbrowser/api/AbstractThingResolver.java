@@ -29,11 +29,16 @@
 
 package com.google.thingbrowser.api;
 
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.google.thingbrowser.api.metrics.Metrics;
 
 /**
  * A simple abstract implementation of <code>ThingResolver</code>.
@@ -43,13 +48,30 @@ import java.util.Map;
  * by implementing {@link #newThing(String)}. Previously constructed
  * <code>Thing</code>s are weakly cached by this class for subsequent use.
  *
+ * <p>This class is thread safe. Concurrent requests for the same URL share a
+ * single call to {@link #newThing(ThingContext, URL)}, so there is at most
+ * one live <code>Thing</code> per URL.
+ *
  * @author ihab@google.com (Ihab Awad)
  */
 public abstract class AbstractThingResolver implements ThingResolver {
 
+  private static final class ThingReference extends WeakReference<Thing> {
+
+    private final ThingUrl key;
+
+    public ThingReference(ThingUrl key, Thing thing, ReferenceQueue<Thing> queue) {
+      super(thing, queue);
+      this.key = key;
+    }
+  }
+
   private final URL rootUrl;
-  private final Map<String, WeakReference<Thing>> thingByPrefix =
-      new HashMap<String, WeakReference<Thing>>();
+  private final ReferenceQueue<Thing> collectedThings = new ReferenceQueue<Thing>();
+  private final ConcurrentMap<ThingUrl, ThingReference> thingByPrefix =
+      new ConcurrentHashMap<ThingUrl, ThingReference>();
+  private final ConcurrentMap<ThingUrl, FutureTask<Thing>> pendingThingByPrefix =
+      new ConcurrentHashMap<ThingUrl, FutureTask<Thing>>();
 
   /**
    * Creates a new <code>AbstractThingResolver</code> that handles a URL space
@@ -65,22 +87,47 @@ public abstract class AbstractThingResolver implements ThingResolver {
     return rootUrl;
   }
 
-  public Thing getThing(ThingContext thingContext, URL url) {
+  public Thing getThing(final ThingContext thingContext, final URL url) {
 
-    sweepMap();
+    expungeCollectedThings();
 
-    String urlExternalForm = url.toExternalForm();
+    ThingUrl key = ThingUrl.valueOf(url);
 
-    WeakReference<Thing> resultReference = thingByPrefix.get(urlExternalForm);
+    Thing result = getCachedThing(key);
+    if (result != null) {
+      Metrics.count("ResolverCacheHit", rootUrl, 1);
+      return result;
+    }
+    Metrics.count("ResolverCacheMiss", rootUrl, 1);
 
-    if (resultReference == null || resultReference.get() == null) {
-      Thing result = newThing(thingContext, url);
-      if (result == null) return null;
-      resultReference = new WeakReference<Thing>(result);
-      thingByPrefix.put(urlExternalForm, resultReference);
+    FutureTask<Thing> task = new FutureTask<Thing>(new Callable<Thing>() {
+      public Thing call() {
+        return newThing(thingContext, url);
+      }
+    });
+
+    FutureTask<Thing> pending = pendingThingByPrefix.putIfAbsent(key, task);
+
+    if (pending == null) {
+      // We are responsible for creating the Thing. Another thread may have
+      // finished creating it between our cache lookup and now, so look again.
+      try {
+        result = getCachedThing(key);
+        if (result != null) return result;
+        task.run();
+        result = waitFor(task);
+        if (result != null) {
+          thingByPrefix.put(
+              key,
+              new ThingReference(key, result, collectedThings));
+        }
+      } finally {
+        pendingThingByPrefix.remove(key, task);
+      }
+      return result;
     }
 
-    return resultReference.get();
+    return waitFor(pending);
   }
 
   /**
@@ -95,13 +142,35 @@ public abstract class AbstractThingResolver implements ThingResolver {
    */
   protected abstract Thing newThing(ThingContext thingContext, URL url);
 
-  private void sweepMap() {
-    Iterator<Map.Entry<String, WeakReference<Thing>>> i =
-      thingByPrefix.entrySet().iterator();
-    while (i.hasNext()) {
-      if (i.next().getValue().get() == null) {
-        i.remove();
+  private Thing getCachedThing(ThingUrl key) {
+    ThingReference reference = thingByPrefix.get(key);
+    return (reference == null) ? null : reference.get();
+  }
+
+  private Thing waitFor(FutureTask<Thing> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+          if (e.getCause() instanceof Error) throw (Error)e.getCause();
+          throw new RuntimeException(e.getCause());
+        }
       }
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  private void expungeCollectedThings() {
+    // Each collected Thing is enqueued exactly once, so the cost of removing
+    // dead entries is spread across lookups rather than paid by each of them.
+    for (ThingReference r; (r = (ThingReference)collectedThings.poll()) != null; ) {
+      thingByPrefix.remove(r.key, r);
     }
   }
 }
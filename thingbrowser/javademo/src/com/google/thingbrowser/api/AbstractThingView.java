@@ -41,7 +41,10 @@ import java.awt.dnd.DragGestureListener;
 import java.awt.dnd.DragSource;
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.swing.JLabel;
@@ -50,9 +53,13 @@ import javax.swing.JPanel;
 /**
  * An abstract Swing implementation of <code>ThingView</code>.
  *
+ * <p>As a {@link LinkSource}, it links to the targets of the link components
+ * in its drag source bar, and to whatever its subclass shows in its content
+ * pane and declares with {@link #setContentLinks(List)}.
+ *
  * @author ihab@google.com (Ihab Awad)
  */
-public abstract class AbstractThingView extends JPanel implements ThingView {
+public abstract class AbstractThingView extends JPanel implements ThingView, LinkSource {
 
   private String fragmentId;
   private final Thing model;
@@ -60,6 +67,8 @@ public abstract class AbstractThingView extends JPanel implements ThingView {
     new HashSet<ThingNavigationListener>();
   private final JPanel dragSourceBar = new JPanel();
   private final JPanel contentPane = new JPanel();
+  private List<URL> contentLinks = Collections.emptyList();
+  private final List<URL> barLinks = new ArrayList<URL>();
 
   /**
    * Creates a new <code>AbstractThingView</code>.
@@ -138,6 +147,22 @@ public abstract class AbstractThingView extends JPanel implements ThingView {
     return contentPane;
   }
 
+  public List<URL> getLinks() {
+    List<URL> links = new ArrayList<URL>(contentLinks);
+    links.addAll(barLinks);
+    return links;
+  }
+
+  /**
+   * Declare the links shown in the content pane.
+   *
+   * @param links the URLs linked to, in the order in which they are shown.
+   */
+  protected void setContentLinks(List<URL> links) {
+    contentLinks = new ArrayList<URL>(links);
+    firePropertyChange("links", null, null);
+  }
+
   protected void fireNavigateToUrl(URL url) {
     if (thingNavigationListeners.size() == 0) return;
     if (url == null) return;
@@ -165,10 +190,14 @@ public abstract class AbstractThingView extends JPanel implements ThingView {
       }
     });
     dragSourceBar.add(component);
+    barLinks.add(component.getUrl());
+    firePropertyChange("links", null, null);
   }
 
   protected void clearLinks() {
     dragSourceBar.removeAll();
+    barLinks.clear();
+    firePropertyChange("links", null, null);
     // If the subclass does not add links to the drag source bar, we still want
     // it to be of a nonzero size. Thus we always add an "invisible" JLabel (one
     // space character) to maintain its height at the proper value.
@@ -0,0 +1,90 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An <code>InputStream</code> reading from a <code>ByteBuffer</code>, for
+ * handing the contents of a {@link MimeResourceFacet#getByteBuffer()} to APIs
+ * that want a stream. The bytes are read straight out of the buffer, which
+ * needs no buffering in front of it.
+ *
+ * @author ihab@google.com (Ihab Awad)
+ */
+public class ByteBufferInputStream extends InputStream {
+
+  private final ByteBuffer buffer;
+
+  /**
+   * @param buffer the buffer to read, from its current position to its limit.
+   * The stream reads from a duplicate, so the buffer itself is not changed.
+   */
+  public ByteBufferInputStream(ByteBuffer buffer) {
+    this.buffer = buffer.duplicate();
+  }
+
+  public int read() {
+    if (!buffer.hasRemaining()) return -1;
+    return buffer.get() & 0xff;
+  }
+
+  public int read(byte[] b, int off, int len) {
+    if (len == 0) return 0;
+    if (!buffer.hasRemaining()) return -1;
+    len = Math.min(len, buffer.remaining());
+    buffer.get(b, off, len);
+    return len;
+  }
+
+  public long skip(long n) {
+    if (n <= 0) return 0;
+    int k = (int)Math.min(n, buffer.remaining());
+    buffer.position(buffer.position() + k);
+    return k;
+  }
+
+  public int available() {
+    return buffer.remaining();
+  }
+
+  public boolean markSupported() {
+    return true;
+  }
+
+  public void mark(int readLimit) {
+    buffer.mark();
+  }
+
+  public void reset() {
+    buffer.reset();
+  }
+}
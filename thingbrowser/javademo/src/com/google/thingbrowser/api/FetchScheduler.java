@@ -0,0 +1,491 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api;
+
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+import com.google.thingbrowser.api.metrics.Metrics;
+
+/**
+ * Admits requests for resources to the network, so that they are made with
+ * bounded concurrency and in order of priority.
+ *
+ * <p>Every request is made holding a {@link Permit} from the scheduler. At
+ * most a fixed number of permits are out for each host and in total. Waiting
+ * requests are admitted by {@link FetchPriority}, most urgent first, and
+ * within a priority, round robin between hosts and in order of arrival for
+ * each host, so that no host starves the others. Since a permit is held for
+ * the whole of a download, prefetches may hold at most half of the permits
+ * for a host and in total, leaving the rest for more urgent requests.
+ *
+ * <p>Connections are reused through the keep-alive cache of
+ * <code>java.net</code>, which the default scheduler sizes to keep as many
+ * idle connections to each host as it admits requests.
+ *
+ * <p>Requests are made at the priority of the current thread, which tasks
+ * submitted through {@link ThingExecutors} inherit from the thread that
+ * submitted them. Unless set, it is {@link FetchPriority#FOREGROUND}.
+ *
+ * <p>The limits of the default scheduler may be set with the system
+ * properties <code>thingbrowser.fetch.maxPerHost</code> (default 6) and
+ * <code>thingbrowser.fetch.maxConnections</code> (default 24).
+ */
+public final class FetchScheduler {
+
+  private static final int MAX_PER_HOST =
+      Integer.getInteger("thingbrowser.fetch.maxPerHost", 6);
+  private static final int MAX_CONNECTIONS =
+      Integer.getInteger("thingbrowser.fetch.maxConnections", 24);
+
+  private static final FetchScheduler defaultScheduler;
+
+  static {
+    if (System.getProperty("http.maxConnections") == null) {
+      System.setProperty("http.maxConnections", Integer.toString(MAX_PER_HOST));
+    }
+    defaultScheduler = new FetchScheduler(MAX_PER_HOST, MAX_CONNECTIONS);
+  }
+
+  private static final ThreadLocal<FetchPriority> currentPriority =
+      new ThreadLocal<FetchPriority>() {
+        protected FetchPriority initialValue() {
+          return FetchPriority.FOREGROUND;
+        }
+      };
+
+  private static enum State {
+    WAITING,
+    ACTIVE,
+    DONE;
+  };
+
+  /**
+   * Permission to make a request, which must be released when the request,
+   * and the reading of its response, is done.
+   */
+  public final class Permit {
+
+    private final ThingUrl url;
+    private final String host;
+    private final long queuedAt = Metrics.startTimer();
+
+    // Guarded by the scheduler.
+    private FetchPriority priority;
+    private State state = State.WAITING;
+    private boolean cancelled = false;
+
+    private Permit(URL url, FetchPriority priority) {
+      this.url = ThingUrl.valueOf(url);
+      // URLs such as file: and jar: ones have no authority; they all count
+      // as one host.
+      String authority = url.getAuthority();
+      this.host = (authority == null) ? "" : authority.toLowerCase(Locale.ENGLISH);
+      this.priority = priority;
+    }
+
+    public ThingUrl getUrl() {
+      return url;
+    }
+
+    /**
+     * @return the priority of the request, which may have been raised since
+     * it was made.
+     */
+    public FetchPriority getPriority() {
+      synchronized (FetchScheduler.this) {
+        return priority;
+      }
+    }
+
+    /**
+     * Cancel the request. If it is waiting, it is dropped, and
+     * {@link #await()} throws <code>CancellationException</code>. If it has
+     * been admitted, its holder should notice with {@link #isCancelled()}
+     * and stop, releasing the permit.
+     */
+    public void cancel() {
+      synchronized (FetchScheduler.this) {
+        if (state == State.DONE) return;
+        cancelled = true;
+        if (state == State.WAITING) {
+          dequeue(this);
+          state = State.DONE;
+          FetchScheduler.this.notifyAll();
+        }
+      }
+    }
+
+    public boolean isCancelled() {
+      synchronized (FetchScheduler.this) {
+        return cancelled;
+      }
+    }
+
+    /**
+     * Wait until the request is admitted.
+     *
+     * @throws InterruptedIOException if the wait is interrupted, in which
+     * case the request is cancelled.
+     * @throws CancellationException if the request is cancelled.
+     */
+    public void await() throws InterruptedIOException {
+      synchronized (FetchScheduler.this) {
+        while (state == State.WAITING) {
+          try {
+            FetchScheduler.this.wait();
+          } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+        if (cancelled && state == State.DONE) throw new CancellationException();
+      }
+      Metrics.stopTimer(queuedAt, "FetchQueue", host);
+    }
+
+    /**
+     * Release the permit, admitting the next waiting request. Releasing a
+     * permit more than once, or one that was cancelled while waiting, has no
+     * effect.
+     */
+    public void release() {
+      synchronized (FetchScheduler.this) {
+        if (state == State.WAITING) {
+          dequeue(this);
+        } else if (state == State.ACTIVE) {
+          deactivate(this);
+        }
+        state = State.DONE;
+        dispatch();
+        FetchScheduler.this.notifyAll();
+      }
+    }
+  }
+
+  private final int maxPerHost;
+  private final int maxConnections;
+
+  // The fields below are guarded by this.
+
+  // For each priority, the queues of waiting requests for each host, in the
+  // order in which the hosts take turns.
+  private final List<LinkedHashMap<String, LinkedList<Permit>>> queues =
+      new ArrayList<LinkedHashMap<String, LinkedList<Permit>>>();
+  private final List<Permit> active = new ArrayList<Permit>();
+  private final Map<String, int[]> activeByHost = new HashMap<String, int[]>();
+  private int activePrefetches = 0;
+
+  /**
+   * @param maxPerHost the most requests to admit to any one host at once.
+   * @param maxConnections the most requests to admit at once.
+   */
+  public FetchScheduler(int maxPerHost, int maxConnections) {
+    this.maxPerHost = maxPerHost;
+    this.maxConnections = maxConnections;
+    for (int i = 0; i < FetchPriority.values().length; i++) {
+      queues.add(new LinkedHashMap<String, LinkedList<Permit>>());
+    }
+  }
+
+  public static FetchScheduler getDefault() {
+    return defaultScheduler;
+  }
+
+  /**
+   * @return the priority of requests made by the current thread.
+   */
+  public static FetchPriority getCurrentPriority() {
+    return currentPriority.get();
+  }
+
+  /**
+   * Set the priority of requests made by the current thread.
+   *
+   * @param priority the new priority.
+   *
+   * @return the previous priority, which the caller should restore.
+   */
+  public static FetchPriority setCurrentPriority(FetchPriority priority) {
+    FetchPriority previous = currentPriority.get();
+    currentPriority.set(priority);
+    return previous;
+  }
+
+  /**
+   * @param task a task.
+   *
+   * @return a task that runs the given one at the priority of the current
+   * thread, whichever thread it is run on.
+   */
+  public static <T> Callable<T> withCurrentPriority(final Callable<T> task) {
+    final FetchPriority priority = getCurrentPriority();
+    return new Callable<T>() {
+      public T call() throws Exception {
+        FetchPriority previous = setCurrentPriority(priority);
+        try {
+          return task.call();
+        } finally {
+          setCurrentPriority(previous);
+        }
+      }
+    };
+  }
+
+  /**
+   * @param task a task.
+   *
+   * @return a task that runs the given one at the priority of the current
+   * thread, whichever thread it is run on.
+   */
+  public static Runnable withCurrentPriority(final Runnable task) {
+    final FetchPriority priority = getCurrentPriority();
+    return new Runnable() {
+      public void run() {
+        FetchPriority previous = setCurrentPriority(priority);
+        try {
+          task.run();
+        } finally {
+          setCurrentPriority(previous);
+        }
+      }
+    };
+  }
+
+  /**
+   * Ask to make a request at the priority of the current thread, and wait
+   * until it is admitted.
+   *
+   * @param url the URL of the request.
+   *
+   * @return the permit for the request.
+   *
+   * @throws InterruptedIOException if the wait is interrupted.
+   * @throws CancellationException if the request is cancelled while waiting.
+   */
+  public Permit acquire(URL url) throws InterruptedIOException {
+    return acquire(url, getCurrentPriority());
+  }
+
+  /**
+   * Ask to make a request, and wait until it is admitted.
+   *
+   * @param url the URL of the request.
+   * @param priority the priority of the request.
+   *
+   * @return the permit for the request.
+   *
+   * @throws InterruptedIOException if the wait is interrupted.
+   * @throws CancellationException if the request is cancelled while waiting.
+   */
+  public Permit acquire(URL url, FetchPriority priority) throws InterruptedIOException {
+    Permit permit = request(url, priority);
+    permit.await();
+    return permit;
+  }
+
+  /**
+   * Ask to make a request, without waiting for it to be admitted.
+   *
+   * @param url the URL of the request.
+   * @param priority the priority of the request.
+   *
+   * @return the permit for the request, on which the caller should
+   * {@link Permit#await()} before making the request.
+   */
+  public synchronized Permit request(URL url, FetchPriority priority) {
+    Permit permit = new Permit(url, priority);
+    enqueue(permit);
+    dispatch();
+    return permit;
+  }
+
+  /**
+   * Raise the requests for some URLs, whether waiting or admitted, to a
+   * priority, where they are less urgent. A request that a more urgent caller
+   * comes to depend on, such as a prefetch the user then navigates to, then
+   * neither waits behind nor is cancelled with the requests of its original
+   * priority.
+   *
+   * @param urls the URLs.
+   * @param priority the priority.
+   */
+  public synchronized void raise(Collection<ThingUrl> urls, FetchPriority priority) {
+    for (int p = priority.ordinal() + 1; p < queues.size(); p++) {
+      List<Permit> raised = new ArrayList<Permit>();
+      for (LinkedList<Permit> queue : queues.get(p).values()) {
+        for (Permit permit : queue) {
+          if (urls.contains(permit.url)) raised.add(permit);
+        }
+      }
+      for (Permit permit : raised) {
+        dequeue(permit);
+        permit.priority = priority;
+        enqueue(permit);
+      }
+    }
+
+    for (Permit permit : active) {
+      if (permit.priority.ordinal() > priority.ordinal() && urls.contains(permit.url)) {
+        if (permit.priority == FetchPriority.PREFETCH) activePrefetches--;
+        permit.priority = priority;
+      }
+    }
+
+    dispatch();
+  }
+
+  /**
+   * Cancel all requests of a priority, whether waiting or admitted.
+   *
+   * @param priority the priority.
+   */
+  public void cancelAll(FetchPriority priority) {
+    cancel(priority, null);
+  }
+
+  /**
+   * Cancel the requests of a priority for some URLs, whether waiting or
+   * admitted.
+   *
+   * @param priority the priority.
+   * @param urls the URLs, or <code>null</code> for all URLs.
+   */
+  public void cancel(FetchPriority priority, Collection<ThingUrl> urls) {
+    List<Permit> permits = new ArrayList<Permit>();
+    synchronized (this) {
+      for (LinkedList<Permit> queue : queues.get(priority.ordinal()).values()) {
+        permits.addAll(queue);
+      }
+      for (Permit permit : active) {
+        if (permit.priority == priority) permits.add(permit);
+      }
+    }
+    for (Permit permit : permits) {
+      if (urls == null || urls.contains(permit.url)) permit.cancel();
+    }
+  }
+
+  private void enqueue(Permit permit) {
+    Map<String, LinkedList<Permit>> hosts = queues.get(permit.priority.ordinal());
+    LinkedList<Permit> queue = hosts.get(permit.host);
+    if (queue == null) {
+      queue = new LinkedList<Permit>();
+      hosts.put(permit.host, queue);
+    }
+    queue.add(permit);
+  }
+
+  private void dequeue(Permit permit) {
+    Map<String, LinkedList<Permit>> hosts = queues.get(permit.priority.ordinal());
+    LinkedList<Permit> queue = hosts.get(permit.host);
+    queue.remove(permit);
+    if (queue.isEmpty()) hosts.remove(permit.host);
+  }
+
+  private void deactivate(Permit permit) {
+    active.remove(permit);
+    int[] count = activeByHost.get(permit.host);
+    if (--count[0] == 0) activeByHost.remove(permit.host);
+    if (permit.priority == FetchPriority.PREFETCH) activePrefetches--;
+  }
+
+  private void dispatch() {
+    while (active.size() < maxConnections) {
+      Permit next = next();
+      if (next == null) return;
+
+      dequeue(next);
+      // Send the host to the back of the line for its priority.
+      LinkedHashMap<String, LinkedList<Permit>> hosts = queues.get(next.priority.ordinal());
+      LinkedList<Permit> rest = hosts.remove(next.host);
+      if (rest != null) hosts.put(next.host, rest);
+
+      next.state = State.ACTIVE;
+      active.add(next);
+      int[] count = activeByHost.get(next.host);
+      if (count == null) {
+        count = new int[1];
+        activeByHost.put(next.host, count);
+      }
+      count[0]++;
+      if (next.priority == FetchPriority.PREFETCH) activePrefetches++;
+
+      notifyAll();
+    }
+  }
+
+  /**
+   * @return the most urgent waiting request that may be admitted now, or
+   * <code>null</code> if there is none.
+   */
+  private Permit next() {
+    for (FetchPriority priority : FetchPriority.values()) {
+      boolean prefetch = (priority == FetchPriority.PREFETCH);
+      if (prefetch && activePrefetches >= Math.max(1, maxConnections / 2)) return null;
+
+      Iterator<Map.Entry<String, LinkedList<Permit>>> i =
+          queues.get(priority.ordinal()).entrySet().iterator();
+      while (i.hasNext()) {
+        Map.Entry<String, LinkedList<Permit>> entry = i.next();
+        String host = entry.getKey();
+        if (getActiveCount(host) >= maxPerHost) continue;
+        if (prefetch && getActivePrefetchCount(host) >= Math.max(1, maxPerHost / 2)) continue;
+        return entry.getValue().getFirst();
+      }
+    }
+    return null;
+  }
+
+  private int getActiveCount(String host) {
+    int[] count = activeByHost.get(host);
+    return (count == null) ? 0 : count[0];
+  }
+
+  private int getActivePrefetchCount(String host) {
+    int count = 0;
+    for (Permit permit : active) {
+      if (permit.priority == FetchPriority.PREFETCH && permit.host.equals(host)) count++;
+    }
+    return count;
+  }
+}
@@ -29,6 +29,7 @@
 
 package com.google.thingbrowser.api;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -39,7 +40,36 @@ public interface MimeFacetRegistry {
 
   void registerFactory(MimeFacetFactory<?> factory);
 
+  /**
+   * Register a module to be started the first time this registry is asked
+   * about one of its MIME types or URL extensions. Starting the module is
+   * expected to register its <code>MimeFacetFactory</code> objects.
+   *
+   * @param module the descriptor of the module.
+   */
+  void registerModule(ModuleDescriptor module);
+
   <T extends Facet> T newFacet(Thing thing, Class<T> clazz);
 
   Set<Class<? extends Facet>> getFacetTypes(Thing thing);
+
+  /**
+   * Return the factories applicable to a MIME resource with the specified
+   * MIME type and URL extension. Factories matching the MIME type come first.
+   *
+   * @param mimeType a MIME type, possibly with parameters (such as
+   * "text/html; charset=UTF-8"), or null.
+   * @param urlExtension a URL extension without the leading dot, or null.
+   *
+   * @return an immutable list of factories.
+   */
+  List<MimeFacetFactory<?>> getFactories(String mimeType, String urlExtension);
+
+  /**
+   * The version of this registry, which changes every time a factory is
+   * registered. Clients that remember the results of
+   * {@link #getFactories(String, String)} should discard them when the
+   * version changes.
+   */
+  int getVersion();
 }
@@ -31,6 +31,7 @@ package com.google.thingbrowser.api;
 
 import java.io.File;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A <code>Facet</code> representing a <code>Thing</code> as
@@ -45,6 +46,11 @@ public interface MimeResourceFacet extends Facet {
    */
   String getMimeType();
 
+  /**
+   * @return the length of this resource in bytes, or -1 if it is not known.
+   */
+  long getContentLength();
+
   /**
    * Create and return a stream from which the information in
    * this MIME resource may be read.
@@ -53,6 +59,18 @@ public interface MimeResourceFacet extends Facet {
    */
   InputStream newInputStream();
 
+  /**
+   * Return a read-only view of the contents of this MIME resource. Where the
+   * contents are held in a file, the view is mapped directly from it, so
+   * clients decoding from the buffer incur no copy onto the Java heap.
+   *
+   * <p>Each call returns a buffer with its own position and limit, positioned
+   * at the start of the contents, so callers need not coordinate.
+   *
+   * @return a read-only buffer holding the contents of this MIME resource.
+   */
+  ByteBuffer getByteBuffer();
+
   /**
    * Return the path to a File containing the contents of this MIME resource.
    * The file may or may not be the actual path from which the MIME resource
@@ -0,0 +1,82 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api;
+
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * Helpers for MIME types as served, with parameters, such as
+ * "text/html; charset=UTF-8".
+ */
+public class MimeUtilities {
+
+  /**
+   * The charset of text served without one: ISO-8859-1, as HTTP has it.
+   */
+  public static final Charset DEFAULT_TEXT_CHARSET = Charset.forName("ISO-8859-1");
+
+  /**
+   * Return the charset named by the "charset" parameter of a MIME type.
+   *
+   * @param mimeType a MIME type, possibly with parameters, or
+   * <code>null</code>.
+   * @param defaultCharset the charset to return if the MIME type names none,
+   * or one that is not supported.
+   *
+   * @return the charset.
+   */
+  public static Charset getCharset(String mimeType, Charset defaultCharset) {
+    if (mimeType == null) return defaultCharset;
+
+    String[] parameters = mimeType.split(";");
+    for (int i = 1; i < parameters.length; i++) {
+      String parameter = parameters[i];
+      int index = parameter.indexOf('=');
+      if (index == -1) continue;
+      if (!parameter.substring(0, index).trim().equalsIgnoreCase("charset")) continue;
+
+      String name = parameter.substring(index + 1).trim();
+      if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+        name = name.substring(1, name.length() - 1);
+      }
+      try {
+        return Charset.forName(name);
+      } catch (IllegalCharsetNameException e) {
+        return defaultCharset;
+      } catch (UnsupportedCharsetException e) {
+        return defaultCharset;
+      }
+    }
+
+    return defaultCharset;
+  }
+}
@@ -0,0 +1,246 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Delivers property changes of model objects to their listeners on the Swing
+ * event dispatch thread, coalescing repeated changes.
+ *
+ * <p>A change fired on the event dispatch thread is delivered immediately,
+ * exactly as by a plain <code>PropertyChangeSupport</code>. A change fired on
+ * any other thread joins a coalescing window, which is delivered by a single
+ * task on the event dispatch thread. A change fired within a transaction (see
+ * {@link #beginTransaction()}) is held until the outermost transaction on that
+ * thread ends. Within a window or transaction, all changes to the same
+ * property of the same object are merged into one, so a bulk edit causes one
+ * round of listener notifications rather than one per mutation.
+ */
+public final class ModelEventBus {
+
+  private static final class Key {
+
+    private final PropertyChangeSupport pcs;
+    private final String propertyName;
+
+    public Key(PropertyChangeSupport pcs, String propertyName) {
+      this.pcs = pcs;
+      this.propertyName = propertyName;
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(pcs) * 31 +
+          (propertyName == null ? 0 : propertyName.hashCode());
+    }
+
+    public boolean equals(Object o) {
+      try {
+        Key k = (Key)o;
+        return
+          pcs == k.pcs &&
+          (propertyName == null ? k.propertyName == null : propertyName.equals(k.propertyName));
+      } catch (ClassCastException e) {
+        return false;
+      }
+    }
+  }
+
+  private static final class PendingChange {
+
+    private final PropertyChangeSupport pcs;
+    private final Object source;
+    private final String propertyName;
+    private final Object oldValue;
+    private Object newValue;
+
+    public PendingChange(PropertyChangeSupport pcs, Object source, String propertyName, Object oldValue, Object newValue) {
+      this.pcs = pcs;
+      this.source = source;
+      this.propertyName = propertyName;
+      this.oldValue = oldValue;
+      this.newValue = newValue;
+    }
+  }
+
+  private static final class Transaction {
+    private int depth = 0;
+    private final Map<Key, PendingChange> changes = new LinkedHashMap<Key, PendingChange>();
+  }
+
+  private static final ModelEventBus instance = new ModelEventBus();
+
+  public static ModelEventBus getInstance() {
+    return instance;
+  }
+
+  private final ThreadLocal<Transaction> transaction = new ThreadLocal<Transaction>();
+  private final List<ModelChangeListener> listeners =
+      new CopyOnWriteArrayList<ModelChangeListener>();
+  private Map<Key, PendingChange> window = null;
+
+  private final Runnable deliverWindow = new Runnable() {
+    public void run() {
+      Map<Key, PendingChange> changes;
+      synchronized (ModelEventBus.this) {
+        changes = window;
+        window = null;
+      }
+      if (changes != null) deliver(changes.values());
+    }
+  };
+
+  private ModelEventBus() {}
+
+  /**
+   * Fire a change to a property of a model object.
+   *
+   * @param pcs the object's PropertyChangeSupport, used to notify its listeners.
+   * @param source the object.
+   * @param propertyName the name of the property.
+   * @param oldValue the old value of the property, or null if unknown.
+   * @param newValue the new value of the property, or null if unknown.
+   */
+  public void fire(PropertyChangeSupport pcs, Object source, String propertyName, Object oldValue, Object newValue) {
+    PendingChange change = new PendingChange(pcs, source, propertyName, oldValue, newValue);
+
+    Transaction t = transaction.get();
+    if (t != null) {
+      merge(t.changes, change);
+      return;
+    }
+
+    if (SwingUtilities.isEventDispatchThread()) {
+      deliver(Collections.singletonList(change));
+      return;
+    }
+
+    enqueue(Collections.singletonList(change));
+  }
+
+  /**
+   * Begin a transaction on the calling thread. Changes fired by this thread
+   * are held until the matching call to {@link #endTransaction()}.
+   * Transactions may be nested; only the outermost one has any effect.
+   */
+  public void beginTransaction() {
+    Transaction t = transaction.get();
+    if (t == null) {
+      t = new Transaction();
+      transaction.set(t);
+    }
+    t.depth++;
+  }
+
+  /**
+   * End a transaction begun by {@link #beginTransaction()}. This should be
+   * called in a <code>finally</code> block.
+   */
+  public void endTransaction() {
+    Transaction t = transaction.get();
+    if (t == null) throw new IllegalStateException("No transaction");
+    if (--t.depth > 0) return;
+    transaction.remove();
+
+    if (t.changes.isEmpty()) return;
+
+    if (SwingUtilities.isEventDispatchThread()) {
+      deliver(t.changes.values());
+    } else {
+      enqueue(t.changes.values());
+    }
+  }
+
+  public void addModelChangeListener(ModelChangeListener l) {
+    listeners.add(l);
+  }
+
+  public void removeModelChangeListener(ModelChangeListener l) {
+    listeners.remove(l);
+  }
+
+  private synchronized void enqueue(Collection<PendingChange> changes) {
+    boolean schedule = (window == null);
+    if (schedule) window = new LinkedHashMap<Key, PendingChange>();
+    for (PendingChange change : changes) {
+      merge(window, change);
+    }
+    if (schedule) SwingUtilities.invokeLater(deliverWindow);
+  }
+
+  private static void merge(Map<Key, PendingChange> changes, PendingChange change) {
+    Key key = new Key(change.pcs, change.propertyName);
+    PendingChange previous = changes.get(key);
+    if (previous == null) {
+      changes.put(key, change);
+    } else {
+      previous.newValue = change.newValue;
+    }
+  }
+
+  private void deliver(Collection<PendingChange> changes) {
+    List<ModelChange> records = listeners.isEmpty() ?
+        null : new ArrayList<ModelChange>(changes.size());
+
+    for (PendingChange change : changes) {
+      try {
+        change.pcs.firePropertyChange(new PropertyChangeEvent(
+            change.source, change.propertyName, change.oldValue, change.newValue));
+      } catch (Throwable t) {
+        t.printStackTrace(System.err);
+      }
+      if (records != null) {
+        records.add(new ModelChange(
+            change.source, change.propertyName, change.oldValue, change.newValue));
+      }
+    }
+
+    if (records == null) return;
+
+    records = Collections.unmodifiableList(records);
+    for (ModelChangeListener l : listeners) {
+      try {
+        l.modelChanged(records);
+      } catch (Throwable t) {
+        t.printStackTrace(System.err);
+      }
+    }
+  }
+}
@@ -0,0 +1,305 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A declaration of what a module of the browser provides, so that the module
+ * need not be started until one of its capabilities is first needed.
+ *
+ * <p>A module is started by running its startup class, a
+ * <code>Runnable</code> that registers the module's resolvers and factories
+ * with the {@link ThingContext}. Once a descriptor has been registered with
+ * the registries of a ThingContext, the registries start the module on
+ * demand, as follows:
+ *
+ * <ul>
+ *   <li>the {@link ThingResolverRegistry}, when a URL under one of the
+ *   module's resolver root URLs is resolved;</li>
+ *   <li>the {@link MimeFacetRegistry}, when it is asked about one of the
+ *   module's MIME types or URL extensions;</li>
+ *   <li>the {@link ThingViewRegistry}, when it is asked for a view of a Thing
+ *   having one of the module's Facet types.</li>
+ * </ul>
+ *
+ * <p>A module is started at most once, unless its startup class fails, in
+ * which case it is started again the next time it is needed. Threads needing
+ * a module while it is being started wait for it, except the thread starting
+ * it, so that a startup class may itself use the registries.
+ */
+public final class ModuleDescriptor {
+
+  private final String name;
+  private final String startupClassName;
+  private final List<URL> resolverRootUrls = new ArrayList<URL>();
+  private final List<String> mimeTypes = new ArrayList<String>();
+  private final List<String> urlExtensions = new ArrayList<String>();
+  private final List<Class<? extends Facet>> facetTypes = new ArrayList<Class<? extends Facet>>();
+
+  private final AtomicReference<FutureTask<Object>> activation =
+      new AtomicReference<FutureTask<Object>>();
+  private volatile Thread activatingThread = null;
+  private volatile boolean active = false;
+
+  /**
+   * @param name a name for the module, for diagnostics.
+   * @param startupClassName the name of the startup class of the module. It
+   * is not loaded until the module is started.
+   */
+  public ModuleDescriptor(String name, String startupClassName) {
+    this.name = name;
+    this.startupClassName = startupClassName;
+  }
+
+  /**
+   * Declare that the module registers a resolver at a root URL.
+   *
+   * @return this descriptor.
+   */
+  public ModuleDescriptor addResolverRootUrl(String rootUrl) {
+    try {
+      resolverRootUrls.add(new URL(rootUrl));
+    } catch (MalformedURLException e) {
+      throw new RuntimeException(e);
+    }
+    return this;
+  }
+
+  /**
+   * Declare that the module registers Facet factories for a MIME type. A
+   * MIME type of the form <code>image/*</code> stands for all MIME types of
+   * that major type.
+   *
+   * @return this descriptor.
+   */
+  public ModuleDescriptor addMimeType(String mimeType) {
+    mimeTypes.add(mimeType.toLowerCase(Locale.ENGLISH));
+    return this;
+  }
+
+  /**
+   * Declare that the module registers Facet factories for a URL extension.
+   *
+   * @return this descriptor.
+   */
+  public ModuleDescriptor addUrlExtension(String urlExtension) {
+    urlExtensions.add(urlExtension.toLowerCase(Locale.ENGLISH));
+    return this;
+  }
+
+  /**
+   * Declare that the module registers view factories for a Facet type.
+   *
+   * @return this descriptor.
+   */
+  public ModuleDescriptor addFacetType(Class<? extends Facet> facetType) {
+    facetTypes.add(facetType);
+    return this;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<URL> getResolverRootUrls() {
+    return Collections.unmodifiableList(resolverRootUrls);
+  }
+
+  /**
+   * @param mimeType a simple MIME type, without parameters, or
+   * <code>null</code>.
+   * @param urlExtension a URL extension, or <code>null</code>.
+   *
+   * @return whether the module registers Facet factories for the given MIME
+   * type or URL extension.
+   */
+  public boolean providesFactoriesFor(String mimeType, String urlExtension) {
+    if (urlExtension != null && urlExtensions.contains(urlExtension.toLowerCase(Locale.ENGLISH))) {
+      return true;
+    }
+    if (mimeType == null) return false;
+    mimeType = mimeType.toLowerCase(Locale.ENGLISH);
+    if (mimeTypes.contains(mimeType)) return true;
+    int slash = mimeType.indexOf('/');
+    return slash >= 0 && mimeTypes.contains(mimeType.substring(0, slash) + "/*");
+  }
+
+  /**
+   * @param facetTypes the Facet types of some Thing.
+   *
+   * @return whether the module registers view factories for any of them.
+   */
+  public boolean providesViewsFor(Set<Class<? extends Facet>> facetTypes) {
+    for (Class<? extends Facet> facetType : this.facetTypes) {
+      if (facetTypes.contains(facetType)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return whether the module has been started.
+   */
+  public boolean isActive() {
+    return active;
+  }
+
+  /**
+   * Start the module if it has not been started, and wait until it has.
+   *
+   * @throws RuntimeException if the startup class of the module failed.
+   */
+  public void activate() {
+    while (true) {
+      FutureTask<Object> task = activation.get();
+
+      if (task == null) {
+        task = newActivation();
+        if (!activation.compareAndSet(null, task)) continue;
+        activatingThread = Thread.currentThread();
+        try {
+          task.run();
+        } finally {
+          activatingThread = null;
+          // Forget a failed start, so that the next thread needing the module
+          // tries again.
+          if (!active) activation.compareAndSet(task, null);
+        }
+      } else if (activatingThread == Thread.currentThread()) {
+        // A startup class that causes its own module to be needed must not
+        // wait for itself.
+        return;
+      }
+
+      waitFor(task);
+      return;
+    }
+  }
+
+  /**
+   * Start a number of modules in parallel, and wait until each has been
+   * started or has failed to. Modules not yet started by another thread are
+   * started on the worker pool of {@link ThingExecutors}, except one, which
+   * is started on the calling thread. Failures are reported on
+   * <code>System.err</code>, and do not prevent the other modules from
+   * starting.
+   *
+   * @param modules the modules to start.
+   */
+  public static void activateAll(Collection<ModuleDescriptor> modules) {
+    List<ModuleDescriptor> remaining = new ArrayList<ModuleDescriptor>();
+    for (ModuleDescriptor module : modules) {
+      if (!module.isActive()) remaining.add(module);
+    }
+    if (remaining.isEmpty()) return;
+
+    for (final ModuleDescriptor module : remaining.subList(1, remaining.size())) {
+      ThingExecutors.getWorkerExecutor().execute(new Runnable() {
+        public void run() {
+          try {
+            module.activate();
+          } catch (RuntimeException e) {
+            // Reported by the calling thread, which waits for the module below
+          }
+        }
+      });
+    }
+
+    // Activating a module that a pool thread has not yet got to simply
+    // starts it here, so this cannot deadlock even if the pool is busy.
+    for (ModuleDescriptor module : remaining) {
+      try {
+        module.activate();
+      } catch (RuntimeException e) {
+        e.printStackTrace(System.err);
+      }
+    }
+  }
+
+  public String toString() {
+    return "module " + name;
+  }
+
+  private FutureTask<Object> newActivation() {
+    return new FutureTask<Object>(new Runnable() {
+      public void run() {
+        Runnable startup;
+        try {
+          startup = (Runnable)Class.forName(startupClassName).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+          throw new RuntimeException(e);
+        } catch (NoSuchMethodException e) {
+          throw new RuntimeException(e);
+        } catch (InstantiationException e) {
+          throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+          if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+          if (e.getCause() instanceof Error) throw (Error)e.getCause();
+          throw new RuntimeException(e.getCause());
+        }
+        startup.run();
+        active = true;
+      }
+    }, null);
+  }
+
+  private static void waitFor(FutureTask<Object> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          task.get();
+          return;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+          if (e.getCause() instanceof Error) throw (Error)e.getCause();
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+}
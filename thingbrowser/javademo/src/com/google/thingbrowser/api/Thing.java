@@ -33,6 +33,7 @@ import java.awt.datatransfer.DataFlavor;
 import java.beans.PropertyChangeListener;
 import java.net.URL;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * A <code>Thing</code> is a distinct model-layer item reachable from a URL.
@@ -92,6 +93,39 @@ public interface Thing {
    */
   <T extends Facet> T getFacet(Class<T> clazz);
 
+  /**
+   * Obtain a <code>Facet</code> of this <code>Thing</code> without blocking the
+   * calling thread. The <code>Facet</code> is created on the worker pool of
+   * {@link ThingExecutors}; cancelling the returned Future interrupts its
+   * creation if it has not yet completed.
+   *
+   * @param clazz the class (interface) which must be implemented by the returned <code>Facet</code>.
+   *
+   * @return a Future whose result is the requested <code>Facet</code>, or
+   * <code>null</code> if the given <code>Facet</code> is not supported.
+   */
+  <T extends Facet> Future<T> getFacetAsync(Class<T> clazz);
+
+  /**
+   * As {@link #getFacetAsync(Class)}, additionally notifying a callback when
+   * the <code>Facet</code> is available.
+   *
+   * @param callback the callback to notify, on a worker thread.
+   */
+  <T extends Facet> Future<T> getFacetAsync(Class<T> clazz, AsyncCallback<T> callback);
+
+  /**
+   * Start creating a number of <code>Facet</code>s in parallel, so that later
+   * calls to {@link #getFacet(Class)} find them ready. Unsupported
+   * <code>Facet</code> classes are ignored.
+   *
+   * @param facetTypes the classes of the <code>Facet</code>s to create.
+   *
+   * @return a Future that is done when all the <code>Facet</code>s have been
+   * created; cancelling it cancels all those not yet created.
+   */
+  Future<?> prefetchFacets(Set<Class<? extends Facet>> facetTypes);
+
   /**
    * Return the ThingContext in which this Thing was created.
    */
@@ -0,0 +1,169 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared thread pools for work that should not be done on the Swing event
+ * dispatch thread. All threads are daemon threads, so these pools never keep
+ * the application alive.
+ */
+public final class ThingExecutors {
+
+  private static final int IO_THREADS =
+      Integer.getInteger("thingbrowser.ioThreads", 8);
+
+  private static final int WORKER_THREADS =
+      Integer.getInteger(
+          "thingbrowser.workerThreads",
+          Runtime.getRuntime().availableProcessors());
+
+  private static final ExecutorService ioExecutor =
+      newBoundedExecutor("thingbrowser-io", IO_THREADS);
+
+  private static final ExecutorService workerExecutor =
+      newBoundedExecutor("thingbrowser-worker", WORKER_THREADS);
+
+  private static final ExecutorService transferExecutor =
+      newUnboundedExecutor("thingbrowser-transfer");
+
+  private static final ExecutorService batchExecutor =
+      newUnboundedExecutor("thingbrowser-batch");
+
+  private ThingExecutors() {}
+
+  /**
+   * @return a pool with a bounded number of threads for operations, such as
+   * resolving Things, that spend most of their time waiting for the network.
+   */
+  public static ExecutorService getIoExecutor() {
+    return ioExecutor;
+  }
+
+  /**
+   * @return a pool with one thread per processor for computations, such as
+   * decoding images or parsing documents, that are too slow for the event
+   * dispatch thread.
+   */
+  public static ExecutorService getWorkerExecutor() {
+    return workerExecutor;
+  }
+
+  /**
+   * @return a pool for transferring the bodies of resources, on which a
+   * thread is started whenever none is free. Other threads may block waiting
+   * for a transfer, so transfers must not queue behind them in a bounded pool.
+   */
+  public static ExecutorService getTransferExecutor() {
+    return transferExecutor;
+  }
+
+  /**
+   * @return a pool for resolving batches of Things, on which a thread is
+   * started whenever none is free. Threads of the I/O pool may block waiting
+   * for a batch, so batches must not queue behind them in a bounded pool;
+   * callers bound the concurrency of each batch themselves.
+   */
+  public static ExecutorService getBatchExecutor() {
+    return batchExecutor;
+  }
+
+  /**
+   * Run a task on an executor, notifying a callback when the task completes.
+   * The callback is not notified if the task is cancelled. The task fetches
+   * resources at the {@link FetchPriority} of the calling thread.
+   *
+   * @param executor the executor on which to run the task.
+   * @param task the task.
+   * @param callback a callback, or <code>null</code>.
+   *
+   * @return a Future representing the pending result of the task.
+   */
+  public static <T> Future<T> submit(
+      Executor executor, Callable<T> task, final AsyncCallback<? super T> callback) {
+    FutureTask<T> future = new FutureTask<T>(FetchScheduler.withCurrentPriority(task)) {
+      protected void done() {
+        if (callback == null || isCancelled()) return;
+        T result;
+        try {
+          result = get();
+        } catch (InterruptedException e) {
+          // Cannot happen, since the task is done.
+          throw new Error(e);
+        } catch (ExecutionException e) {
+          callback.onFailure(e.getCause());
+          return;
+        }
+        callback.onSuccess(result);
+      }
+    };
+    executor.execute(future);
+    return future;
+  }
+
+  private static ExecutorService newBoundedExecutor(String name, int threads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        threads, threads, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(),
+        newThreadFactory(name));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static ExecutorService newUnboundedExecutor(String name) {
+    return new ThreadPoolExecutor(
+        0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(),
+        newThreadFactory(name));
+  }
+
+  private static ThreadFactory newThreadFactory(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
@@ -30,6 +30,9 @@
 package com.google.thingbrowser.api;
 
 import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -45,7 +48,26 @@ public interface ThingResolverRegistry {
   void registerResolver(ThingResolver resolver);
 
   /**
-   * Locate and return a <code>Thing</code> for a specified URL.
+   * Unregister a previously registered <code>ThingResolver</code>. This has
+   * no effect if the resolver is not currently registered.
+   *
+   * @param resolver the <code>ThingResolver</code> to be unregistered.
+   */
+  void unregisterResolver(ThingResolver resolver);
+
+  /**
+   * Register a module to be started the first time a URL under one of its
+   * resolver root URLs is resolved. Starting the module is expected to
+   * register its resolvers.
+   *
+   * @param module the descriptor of the module.
+   */
+  void registerModule(ModuleDescriptor module);
+
+  /**
+   * Locate and return a <code>Thing</code> for a specified URL. If the root
+   * URLs of several registered resolvers are prefixes of the URL, the resolver
+   * with the longest root URL is used.
    *
    * @param thingContext a ThingContext for the newly instantiated Thing.
    *
@@ -54,4 +76,45 @@ public interface ThingResolverRegistry {
    * @return a <code>Thing</code> corresponding to the specified URL.
    */
   Thing getThing(ThingContext thingContext, URL url);
+
+  /**
+   * Locate a <code>Thing</code> for a specified URL without blocking the
+   * calling thread. The work is done on the I/O pool of
+   * {@link ThingExecutors}, so this is the method to call from the Swing
+   * event dispatch thread.
+   *
+   * @param thingContext a ThingContext for the newly instantiated Thing.
+   *
+   * @param url an HTTP URL.
+   *
+   * @return a Future whose result is the <code>Thing</code> corresponding to
+   * the specified URL.
+   */
+  Future<Thing> getThingAsync(ThingContext thingContext, URL url);
+
+  /**
+   * As {@link #getThingAsync(ThingContext, URL)}, additionally notifying
+   * a callback when the <code>Thing</code> has been located.
+   *
+   * @param callback the callback to notify, on an I/O thread.
+   */
+  Future<Thing> getThingAsync(ThingContext thingContext, URL url, AsyncCallback<Thing> callback);
+
+  /**
+   * Locate <code>Thing</code>s for a number of URLs at once, without blocking
+   * the calling thread. The URLs are grouped by the resolver that handles
+   * them and their host, and each group is resolved in parallel on the batch
+   * pool of {@link ThingExecutors}, with a limited number of concurrent
+   * requests per group. Callers may wait for the results on any thread,
+   * including those of the I/O pool.
+   *
+   * @param thingContext a ThingContext for the newly instantiated Things.
+   *
+   * @param urls some HTTP URLs.
+   *
+   * @return a list of Futures, one per URL in the iteration order of
+   * <code>urls</code>. A failure to resolve one URL is reported only by its
+   * own Future and does not affect the others.
+   */
+  List<Future<Thing>> getThings(ThingContext thingContext, Collection<URL> urls);
 }
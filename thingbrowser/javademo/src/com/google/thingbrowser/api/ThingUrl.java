@@ -0,0 +1,245 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable, interned URL, for use as a key wherever Things are looked up
+ * by URL.
+ *
+ * <p>Unlike <code>java.net.URL</code>, whose <code>equals</code> and
+ * <code>hashCode</code> may resolve host names, a <code>ThingUrl</code>
+ * never touches the network. It compares by a canonical external form, in
+ * which the scheme and host are in lower case, the default port of the
+ * scheme is omitted and an empty path is "/". Its hash code is computed once,
+ * and its base URL and fragment identifier are split once.
+ *
+ * <p>Instances are interned: at any time there is at most one instance for
+ * each canonical form, so equal instances are usually identical.
+ */
+public final class ThingUrl {
+
+  private static final class Reference extends WeakReference<ThingUrl> {
+    private final String key;
+
+    public Reference(ThingUrl url, ReferenceQueue<ThingUrl> queue) {
+      super(url, queue);
+      this.key = url.externalForm;
+    }
+  }
+
+  private static final ReferenceQueue<ThingUrl> collectedUrls = new ReferenceQueue<ThingUrl>();
+  private static final ConcurrentMap<String, Reference> urlByExternalForm =
+      new ConcurrentHashMap<String, Reference>();
+
+  private final String externalForm;
+  private final int hash;
+  private final String fragmentId;
+  private final int fragmentIndex;
+
+  // Computed on demand, since many ThingUrls never need them.
+  private volatile ThingUrl base = null;
+  private volatile URL url = null;
+
+  private ThingUrl(String externalForm) {
+    this.externalForm = externalForm;
+    this.hash = externalForm.hashCode();
+    this.fragmentIndex = externalForm.indexOf('#');
+    this.fragmentId = (fragmentIndex == -1) ? null : externalForm.substring(fragmentIndex + 1);
+  }
+
+  /**
+   * @param url a URL, or <code>null</code>.
+   *
+   * @return the ThingUrl for the URL, or <code>null</code> if the URL is
+   * <code>null</code>.
+   */
+  public static ThingUrl valueOf(URL url) {
+    if (url == null) return null;
+    ThingUrl result = intern(canonicalize(url));
+    if (result.url == null && url.toExternalForm().equals(result.externalForm)) {
+      result.url = url;
+    }
+    return result;
+  }
+
+  /**
+   * @param spec the string form of a URL.
+   *
+   * @return the ThingUrl for the URL.
+   *
+   * @throws RuntimeException if the string is not a valid URL.
+   */
+  public static ThingUrl valueOf(String spec) {
+    try {
+      return valueOf(new URL(spec));
+    } catch (MalformedURLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return the canonical external form of this URL.
+   */
+  public String getExternalForm() {
+    return externalForm;
+  }
+
+  /**
+   * @return this URL without its fragment identifier, which is this URL
+   * itself if it has none.
+   */
+  public ThingUrl getBase() {
+    if (fragmentIndex == -1) return this;
+    ThingUrl result = base;
+    if (result == null) {
+      result = intern(externalForm.substring(0, fragmentIndex));
+      base = result;
+    }
+    return result;
+  }
+
+  /**
+   * @return the fragment identifier of this URL, or <code>null</code> if it
+   * has none.
+   */
+  public String getFragmentId() {
+    return fragmentId;
+  }
+
+  /**
+   * @param fragmentId a fragment identifier, or <code>null</code>.
+   *
+   * @return the base of this URL with the given fragment identifier.
+   */
+  public ThingUrl withFragmentId(String fragmentId) {
+    if (fragmentId == null || fragmentId.length() == 0) return getBase();
+    return intern(getBase().externalForm + "#" + fragmentId);
+  }
+
+  /**
+   * @return this URL as a <code>java.net.URL</code>.
+   */
+  public URL toUrl() {
+    URL result = url;
+    if (result == null) {
+      try {
+        result = new URL(externalForm);
+      } catch (MalformedURLException e) {
+        // We only ever hold the canonical forms of valid URLs.
+        throw new Error(e);
+      }
+      url = result;
+    }
+    return result;
+  }
+
+  public int hashCode() {
+    return hash;
+  }
+
+  public boolean equals(Object o) {
+    if (o == this) return true;
+    if (!(o instanceof ThingUrl)) return false;
+    ThingUrl u = (ThingUrl)o;
+    return hash == u.hash && externalForm.equals(u.externalForm);
+  }
+
+  public String toString() {
+    return externalForm;
+  }
+
+  private static ThingUrl intern(String externalForm) {
+    expungeCollectedUrls();
+
+    Reference reference = urlByExternalForm.get(externalForm);
+    ThingUrl result = (reference == null) ? null : reference.get();
+    if (result != null) return result;
+
+    ThingUrl candidate = new ThingUrl(externalForm);
+    Reference candidateReference = new Reference(candidate, collectedUrls);
+    while (true) {
+      reference = urlByExternalForm.putIfAbsent(externalForm, candidateReference);
+      if (reference == null) return candidate;
+      result = reference.get();
+      if (result != null) return result;
+      // The entry was collected but not yet expunged.
+      if (urlByExternalForm.replace(externalForm, reference, candidateReference)) return candidate;
+    }
+  }
+
+  private static void expungeCollectedUrls() {
+    for (Reference r; (r = (Reference)collectedUrls.poll()) != null; ) {
+      urlByExternalForm.remove(r.key, r);
+    }
+  }
+
+  private static String canonicalize(URL url) {
+    StringBuilder sb = new StringBuilder(url.toExternalForm().length());
+
+    sb.append(url.getProtocol().toLowerCase(Locale.ENGLISH)).append(':');
+
+    if (url.getAuthority() != null) {
+      sb.append("//");
+      if (url.getUserInfo() != null) {
+        sb.append(url.getUserInfo()).append('@');
+      }
+      if (url.getHost() != null) {
+        sb.append(url.getHost().toLowerCase(Locale.ENGLISH));
+      }
+      if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+        sb.append(':').append(url.getPort());
+      }
+    }
+
+    String path = url.getPath();
+    if (path.length() == 0 && url.getAuthority() != null) {
+      path = "/";
+    }
+    sb.append(path);
+
+    if (url.getQuery() != null) {
+      sb.append('?').append(url.getQuery());
+    }
+
+    if (url.getRef() != null) {
+      sb.append('#').append(url.getRef());
+    }
+
+    return sb.toString();
+  }
+}
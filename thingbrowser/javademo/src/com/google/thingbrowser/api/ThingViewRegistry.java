@@ -42,6 +42,27 @@ public interface ThingViewRegistry {
    */
   void registerFactory(ThingViewFactory factory);
 
+  /**
+   * Register a module to be started the first time a view is requested for a
+   * Thing with one of its Facet types. Starting the module is expected to
+   * register its <code>ThingViewFactory</code> objects.
+   *
+   * @param module the descriptor of the module.
+   */
+  void registerModule(ModuleDescriptor module);
+
+  /**
+   * Start the registered modules that provide views for a Thing, if they have
+   * not been started. Starting a module loads its classes and runs its
+   * startup class, so callers about to show a Thing call this off the event
+   * dispatch thread first. On the event dispatch thread,
+   * <code>newView(...)</code> leaves modules not yet started to the
+   * background, unless no factory started so far can show the Thing.
+   *
+   * @param thing a Thing.
+   */
+  void startModulesFor(Thing thing);
+
   /**
    * Locate and return a <code>ThingView</code> for a specified <code>Thing</code>
    * based on the specifications of all the currently registered <code>ThingViewFactory</code>
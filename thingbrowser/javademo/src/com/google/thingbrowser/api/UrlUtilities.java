@@ -30,9 +30,9 @@
 package com.google.thingbrowser.api;
 
 import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.Locale;
 
 /**
  *
@@ -78,6 +78,25 @@ public class UrlUtilities {
     return result;
   }
   
+  /**
+   * Return the extension of a URL, such as "html" for the URL
+   * "http://example.com/index.html?lang=en". The extension is taken from the
+   * last segment of the path, ignoring any query or fragment, and is
+   * converted to lower case.
+   *
+   * @param url a URL.
+   *
+   * @return the extension, without the leading dot, or <code>null</code> if
+   * the URL has no extension.
+   */
+  public static String getExtension(URL url) {
+    String path = url.getPath();
+    String segment = path.substring(path.lastIndexOf('/') + 1);
+    int index = segment.lastIndexOf('.');
+    if (index == -1 || index == segment.length() - 1) return null;
+    return segment.substring(index + 1).toLowerCase(Locale.ENGLISH);
+  }
+
   /**
    * Join a URL and a fragment identifier, and return a new URL
    * 
@@ -88,11 +107,7 @@ public class UrlUtilities {
    */
   public static URL joinUrlAndFragment(URL url, String fragmentId) {
     if (fragmentId == null || fragmentId.length() == 0) return url;
-    try {
-      return new URL(url, "#" + fragmentId);
-    } catch (MalformedURLException e) {
-      throw new RuntimeException(e);
-    }
+    return ThingUrl.valueOf(url).withFragmentId(fragmentId).toUrl();
   }
 
   /**
@@ -102,24 +117,15 @@ public class UrlUtilities {
    * 
    * @return an array of length 2 containing the base URL
    * and a String fragment identifier, in that order.
+   *
+   * @see ThingUrl#getBase()
+   * @see ThingUrl#getFragmentId()
    */
   public static Object[] splitUrlAndFragment(URL url) {
-    String s = url.toExternalForm();
-    int idx = s.lastIndexOf('#');
-    if (idx == -1) {
-      return new Object[] {
-        url,
-        null,
-      };
-    } else {
-      try {
-        return new Object[] {
-            new URL(s.substring(0, idx)),
-            s.substring(idx + 1, s.length()),
-        };
-      } catch (MalformedURLException e) {
-        throw new RuntimeException(e);
-      }
-    }
+    ThingUrl thingUrl = ThingUrl.valueOf(url);
+    return new Object[] {
+      thingUrl.getBase().toUrl(),
+      thingUrl.getFragmentId(),
+    };
   }
 }
@@ -29,39 +29,87 @@
 
 package com.google.thingbrowser.api.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.google.thingbrowser.api.Facet;
 import com.google.thingbrowser.api.MimeFacetFactory;
 import com.google.thingbrowser.api.MimeFacetRegistry;
 import com.google.thingbrowser.api.MimeResourceFacet;
+import com.google.thingbrowser.api.ModuleDescriptor;
 import com.google.thingbrowser.api.Thing;
+import com.google.thingbrowser.api.UrlUtilities;
 
 /**
  * @author ihab@google.com (Ihab Awad)
  */
 public class MimeFacetRegistryImpl implements MimeFacetRegistry {
 
-  private Set<MimeFacetFactory<? extends Facet>> NO_FACTORIES =
-    new HashSet<MimeFacetFactory<? extends Facet>>();
+  /**
+   * The key of the compiled index: a simple MIME type and a lower case URL
+   * extension, either of which may be null.
+   */
+  private static class IndexKey {
 
-  private final Map<String, Set<MimeFacetFactory<? extends Facet>>> factoriesByMimeType =
-    new HashMap<String, Set<MimeFacetFactory<? extends Facet>>>();
+    private final String mimeType;
+    private final String urlExtension;
 
-  private final Map<String, Set<MimeFacetFactory<? extends Facet>>> factoriesByUrlExtension =
-    new HashMap<String, Set<MimeFacetFactory<? extends Facet>>>();
+    public IndexKey(String mimeType, String urlExtension) {
+      this.mimeType = mimeType;
+      this.urlExtension = urlExtension;
+    }
 
-  public Set<Class<? extends Facet>> getFacetTypes(Thing thing) {
-    Set<Class<? extends Facet>> results = new HashSet<Class<? extends Facet>>();
+    public int hashCode() {
+      return
+        (mimeType == null ? 0 : mimeType.hashCode()) * 31 +
+        (urlExtension == null ? 0 : urlExtension.hashCode());
+    }
 
-    for (MimeFacetFactory<? extends Facet> factory : getFactoriesForMimeType(thing)) {
-      results.add(factory.getFacetClass());
+    public boolean equals(Object o) {
+      try {
+        IndexKey k = (IndexKey)o;
+        return
+          (mimeType == null ? k.mimeType == null : mimeType.equals(k.mimeType)) &&
+          (urlExtension == null ? k.urlExtension == null : urlExtension.equals(k.urlExtension));
+      } catch (ClassCastException e) {
+        return false;
+      }
     }
+  }
+
+  private static final List<MimeFacetFactory<?>> NO_FACTORIES =
+    Collections.emptyList();
+
+  private final Map<String, Set<MimeFacetFactory<?>>> factoriesByMimeType =
+    new HashMap<String, Set<MimeFacetFactory<?>>>();
+
+  // Concurrent so that lookups can check for an extension without our lock.
+  private final Map<String, Set<MimeFacetFactory<?>>> factoriesByUrlExtension =
+    new ConcurrentHashMap<String, Set<MimeFacetFactory<?>>>();
+
+  private final Map<IndexKey, List<MimeFacetFactory<?>>> index =
+    new ConcurrentHashMap<IndexKey, List<MimeFacetFactory<?>>>();
+
+  private volatile int version = 0;
 
-    for (MimeFacetFactory<? extends Facet> factory : getFactoriesForUrlExtension(thing)) {
+  // Modules registered but not yet started. Empty once all have started, so
+  // that lookups then pay only for checking that.
+  private final List<ModuleDescriptor> pendingModules =
+    new CopyOnWriteArrayList<ModuleDescriptor>();
+
+  public Set<Class<? extends Facet>> getFacetTypes(Thing thing) {
+    Set<Class<? extends Facet>> results = new HashSet<Class<? extends Facet>>();
+
+    for (MimeFacetFactory<?> factory : getFactories(thing)) {
       results.add(factory.getFacetClass());
     }
 
@@ -73,62 +121,126 @@ public class MimeFacetRegistryImpl implements MimeFacetRegistry {
   )
   public <T extends Facet> T newFacet(Thing thing, Class<T> clazz) {
 
-    for (MimeFacetFactory<? extends Facet> factory : getFactoriesForMimeType(thing)) {
+    for (MimeFacetFactory<?> factory : getFactories(thing)) {
       if (clazz == factory.getFacetClass()) {
         return (T)factory.createFacet(thing);
       }
     }
 
-    for (MimeFacetFactory<? extends Facet> factory : getFactoriesForUrlExtension(thing)) {
-      if (clazz == factory.getFacetClass()) {
-        return (T)factory.createFacet(thing);
+    return null;
+  }
+
+  public List<MimeFacetFactory<?>> getFactories(String mimeType, String urlExtension) {
+    IndexKey key = new IndexKey(
+        getSimpleMimeType(mimeType),
+        (urlExtension == null) ? null : urlExtension.toLowerCase(Locale.ENGLISH));
+
+    if (!pendingModules.isEmpty()) {
+      activatePendingModules(key);
+    }
+
+    // Extensions come from arbitrary URLs, so memoize only those some factory
+    // was registered for; the rest all select the same factories as none.
+    if (key.urlExtension != null && !factoriesByUrlExtension.containsKey(key.urlExtension)) {
+      key = new IndexKey(key.mimeType, null);
+    }
+
+    List<MimeFacetFactory<?>> result = index.get(key);
+    if (result != null) return result;
+
+    synchronized (this) {
+      result = index.get(key);
+      if (result == null) {
+        result = compile(key);
+        index.put(key, result);
       }
     }
 
-    return null;
+    return result;
   }
 
-  public void registerFactory(MimeFacetFactory<?> factory) {
+  public int getVersion() {
+    return version;
+  }
+
+  public void registerModule(ModuleDescriptor module) {
+    if (module.isActive()) return;
+    pendingModules.add(module);
+    // Lookups may have been memoized without this module.
+    synchronized (this) {
+      index.clear();
+      version++;
+    }
+  }
+
+  public synchronized void registerFactory(MimeFacetFactory<?> factory) {
 
     if (factory.getMimeType() != null) {
       Set<MimeFacetFactory<?>> setForMime = factoriesByMimeType.get(factory.getMimeType());
       if (setForMime == null) {
-        setForMime = new HashSet<MimeFacetFactory<?>>();
+        setForMime = new LinkedHashSet<MimeFacetFactory<?>>();
         factoriesByMimeType.put(factory.getMimeType(), setForMime);
       }
       setForMime.add(factory);
     }
 
     if (factory.getUrlExtension() != null) {
-      String lowerCaseExtension = factory.getUrlExtension().toLowerCase();
+      String lowerCaseExtension = factory.getUrlExtension().toLowerCase(Locale.ENGLISH);
       Set<MimeFacetFactory<?>> setForExtension = factoriesByUrlExtension.get(lowerCaseExtension);
       if (setForExtension == null) {
-        setForExtension = new HashSet<MimeFacetFactory<?>>();
+        setForExtension = new LinkedHashSet<MimeFacetFactory<?>>();
         factoriesByUrlExtension.put(lowerCaseExtension, setForExtension);
       }
       setForExtension.add(factory);
     }
+
+    index.clear();
+    version++;
   }
 
-  private Set<MimeFacetFactory<? extends Facet>> getFactoriesForMimeType(Thing thing) {
-    String mimeType = getSimpleMimeType(thing);
-    if (mimeType == null) return NO_FACTORIES;
-    Set<MimeFacetFactory<? extends Facet>> result = factoriesByMimeType.get(mimeType);
-    return (result == null) ? NO_FACTORIES : result;
+  // Called without holding our lock, since starting a module registers
+  // factories with us.
+  private void activatePendingModules(IndexKey key) {
+    List<ModuleDescriptor> modules = new ArrayList<ModuleDescriptor>();
+    for (ModuleDescriptor module : pendingModules) {
+      if (module.isActive()) {
+        pendingModules.remove(module);
+      } else if (module.providesFactoriesFor(key.mimeType, key.urlExtension)) {
+        modules.add(module);
+      }
+    }
+    if (modules.isEmpty()) return;
+    ModuleDescriptor.activateAll(modules);
+    // Modules that failed to start stay pending, to be tried again.
+    for (ModuleDescriptor module : modules) {
+      if (module.isActive()) pendingModules.remove(module);
+    }
   }
 
-  private Set<MimeFacetFactory<? extends Facet>> getFactoriesForUrlExtension(Thing thing) {
-    String extension = getUrlExtension(thing);
-    if (extension == null) return NO_FACTORIES;
-    Set<MimeFacetFactory<? extends Facet>> result = factoriesByUrlExtension.get(extension);
-    return (result == null) ? NO_FACTORIES : result;
+  private List<MimeFacetFactory<?>> compile(IndexKey key) {
+    Set<MimeFacetFactory<?>> result = new LinkedHashSet<MimeFacetFactory<?>>();
+
+    if (key.mimeType != null && factoriesByMimeType.containsKey(key.mimeType)) {
+      result.addAll(factoriesByMimeType.get(key.mimeType));
+    }
+
+    if (key.urlExtension != null && factoriesByUrlExtension.containsKey(key.urlExtension)) {
+      result.addAll(factoriesByUrlExtension.get(key.urlExtension));
+    }
+
+    return result.isEmpty() ?
+        NO_FACTORIES :
+        Collections.unmodifiableList(new ArrayList<MimeFacetFactory<?>>(result));
   }
 
-  private String getSimpleMimeType(Thing thing) {
+  private List<MimeFacetFactory<?>> getFactories(Thing thing) {
     MimeResourceFacet mrf = thing.getFacet(MimeResourceFacet.class);
-    if (mrf == null) return null;
+    return getFactories(
+        (mrf == null) ? null : mrf.getMimeType(),
+        UrlUtilities.getExtension(thing.getUrl()));
+  }
 
-    String mimeType = mrf.getMimeType();
+  private static String getSimpleMimeType(String mimeType) {
     if (mimeType == null) return null;
 
     if (mimeType.contains(";")) {
@@ -137,11 +249,4 @@ public class MimeFacetRegistryImpl implements MimeFacetRegistry {
 
     return mimeType;
   }
-
-  private String getUrlExtension(Thing thing) {
-    String externalForm = thing.getUrl().toExternalForm();
-    int index = externalForm.lastIndexOf('.');
-    if (index == -1) return null;
-    return externalForm.substring(index + 1, externalForm.length()).toLowerCase();
-  }
 }
@@ -0,0 +1,342 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.thingbrowser.api.FetchScheduler;
+import com.google.thingbrowser.api.ThingExecutors;
+import com.google.thingbrowser.api.impl.cache.ContentEncoding;
+import com.google.thingbrowser.api.impl.cache.PartialEntry;
+import com.google.thingbrowser.api.metrics.Metrics;
+
+/**
+ * Downloads the body of a response into a {@link PartialEntry}.
+ *
+ * <p>Where the server accepts byte ranges and the body is large, the body is
+ * split into segments that are downloaded concurrently, each over its own
+ * connection, and written into place in the preallocated partial file. The
+ * first segment is read from the response that was already received, so no
+ * request is wasted. Readers of the partial entry can read as far as the
+ * segments are complete from the start.
+ *
+ * <p>A segment whose transfer fails is resumed where it stopped, up to a few
+ * times, before the download is abandoned. Range requests carry If-Range with
+ * the validator of the original response, so that a resource that changes
+ * meanwhile fails the download rather than being spliced from two versions.
+ *
+ * <p>Each segment is transferred holding a permit from the
+ * {@link FetchScheduler}, at the priority of the original request, so the
+ * segments of a download count against the limit of connections to its host.
+ * Cancelling any of the permits abandons the download.
+ *
+ * <p>The number of segments may be set with the system property
+ * <code>thingbrowser.download.segments</code> (default 4), and the smallest
+ * size of a segment with <code>thingbrowser.download.minSegmentBytes</code>
+ * (default 512 KB).
+ */
+final class SegmentedDownload {
+
+  private static final int SEGMENTS =
+      Integer.getInteger("thingbrowser.download.segments", 4);
+  private static final long MIN_SEGMENT_BYTES =
+      Long.getLong("thingbrowser.download.minSegmentBytes", 512 * 1024);
+  private static final int MAX_ATTEMPTS = 3;
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  private final URL url;
+  // The permit of the original request, whose priority, raised if a more
+  // urgent reader takes the download over, later segments are requested at.
+  private final FetchScheduler.Permit origin;
+  private final PartialEntry download;
+  private final String validator;
+  private final String encoding;
+  private final String host;
+  private final long startTime;
+
+  // The segments, as [start, end) byte ranges of the body; the end is -1 if
+  // the length of the body is not known, in which case there is one segment.
+  private final long[] starts;
+  private final long[] ends;
+
+  // Guarded by this.
+  private final long[] positions;
+  private int remaining;
+  private long bytes = 0;
+  private boolean failed = false;
+  private boolean completed = false;
+
+  /**
+   * Start downloading the body of a response, on the transfer pool of
+   * {@link ThingExecutors}.
+   *
+   * @param url the URL of the resource.
+   * @param connection the connection the response was received on.
+   * @param is the stream from which the body of the response is read.
+   * @param permit the permit under which the request was made, which is
+   * released once the body of the response has been read.
+   * @param download the entry into which to download the body.
+   * @param host the host, for metrics.
+   * @param startTime the time the request was sent, for metrics.
+   */
+  static void start(URL url, URLConnection connection, InputStream is,
+      FetchScheduler.Permit permit, PartialEntry download, String host, long startTime) {
+    SegmentedDownload d = new SegmentedDownload(
+        url, permit, getValidator(connection), download, host, startTime,
+        download.getMetadata().getContentLength());
+
+    if (d.ends[0] >= 0) {
+      try {
+        download.allocate(d.ends[d.ends.length - 1]);
+      } catch (IOException e) {
+        // The file will grow as it is written instead.
+        e.printStackTrace(System.err);
+      }
+    }
+
+    d.startSegment(0, is, permit);
+    for (int i = 1; i < d.starts.length; i++) {
+      d.startSegment(i, null, null);
+    }
+  }
+
+  private SegmentedDownload(URL url, FetchScheduler.Permit origin, String validator,
+      PartialEntry download, String host, long startTime, long length) {
+    this.url = url;
+    this.origin = origin;
+    this.validator = validator;
+    this.encoding = download.getMetadata().getContentEncoding();
+    this.download = download;
+    this.host = host;
+    this.startTime = startTime;
+
+    int count = 1;
+    if (validator != null && length > 0) {
+      count = (int)Math.max(1, Math.min(SEGMENTS, length / MIN_SEGMENT_BYTES));
+    }
+
+    starts = new long[count];
+    ends = new long[count];
+    positions = new long[count];
+    remaining = count;
+
+    long segmentLength = (length + count - 1) / count;
+    for (int i = 0; i < count; i++) {
+      starts[i] = positions[i] = i * segmentLength;
+      ends[i] = (length < 0) ? -1 : Math.min(length, (i + 1) * segmentLength);
+    }
+  }
+
+  private boolean sameEncoding(String rangeEncoding) {
+    return ContentEncoding.isIdentity(encoding) ?
+        ContentEncoding.isIdentity(rangeEncoding) : encoding.equalsIgnoreCase(rangeEncoding);
+  }
+
+  /**
+   * @return the validator to send with If-Range, or <code>null</code> if the
+   * server does not accept ranges of this resource, or it has no strong
+   * validator, so that it cannot be resumed.
+   */
+  private static String getValidator(URLConnection connection) {
+    if (!(connection instanceof HttpURLConnection)) return null;
+    if (!"bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"))) return null;
+
+    String etag = connection.getHeaderField("ETag");
+    if (etag != null && !etag.startsWith("W/")) return etag;
+    return connection.getHeaderField("Last-Modified");
+  }
+
+  private void startSegment(final int i, final InputStream is,
+      final FetchScheduler.Permit permit) {
+    try {
+      ThingExecutors.getTransferExecutor().execute(new Runnable() {
+        public void run() {
+          runSegment(i, is, permit);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      if (permit != null) permit.release();
+      fail(newFailure(e));
+    }
+  }
+
+  // Every way out of a segment either completes it or fails the download, so
+  // that the entry is never left locked with readers waiting on it.
+  private void runSegment(int i, InputStream is, FetchScheduler.Permit permit) {
+    try {
+      transferSegment(i, is, permit);
+    } catch (RuntimeException e) {
+      fail(newFailure(e));
+      throw e;
+    } catch (Error e) {
+      fail(newFailure(e));
+      throw e;
+    }
+  }
+
+  private void transferSegment(int i, InputStream is, FetchScheduler.Permit permit) {
+    int attempts = 0;
+
+    while (true) {
+      try {
+        if (permit == null) permit = FetchScheduler.getDefault().acquire(url, origin.getPriority());
+        try {
+          if (is == null) is = openRange(i);
+          try {
+            copy(i, is, permit);
+          } finally {
+            is.close();
+          }
+        } finally {
+          permit.release();
+          permit = null;
+        }
+        segmentDone(i);
+        return;
+      } catch (CancellationException e) {
+        fail(new IOException("Download of " + url + " was cancelled"));
+        return;
+      } catch (IOException e) {
+        is = null;
+        if (isFailed()) return;
+        if (validator == null || ++attempts >= MAX_ATTEMPTS) {
+          fail(e);
+          return;
+        }
+        Metrics.count("FetchResume", host, 1);
+      }
+    }
+  }
+
+  private IOException newFailure(Throwable cause) {
+    IOException e = new IOException("Download of " + url + " failed");
+    e.initCause(cause);
+    return e;
+  }
+
+  private InputStream openRange(int i) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+    long end = ends[i];
+    connection.setRequestProperty(
+        "Range", "bytes=" + getPosition(i) + "-" + ((end < 0) ? "" : Long.toString(end - 1)));
+    connection.setRequestProperty("If-Range", validator);
+    // Ranges are of the body as encoded, so ask for it in the same encoding.
+    connection.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT);
+
+    if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+        || !sameEncoding(connection.getContentEncoding())) {
+      connection.disconnect();
+      // The resource has changed, or the server no longer sends ranges of it;
+      // either way, no segment can be resumed.
+      IOException e = new IOException(
+          "Expected a partial response from " + url + ", got " + connection.getResponseCode());
+      fail(e);
+      throw e;
+    }
+
+    return connection.getInputStream();
+  }
+
+  private void copy(int i, InputStream is, FetchScheduler.Permit permit) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+
+    while (!isFailed()) {
+      if (permit.isCancelled()) throw new CancellationException();
+
+      long position = getPosition(i);
+      int len = BUFFER_SIZE;
+      if (ends[i] >= 0) {
+        len = (int)Math.min(len, ends[i] - position);
+        if (len == 0) return;
+      }
+
+      int n = is.read(buffer, 0, len);
+      if (n < 0) {
+        if (ends[i] < 0) return;
+        throw new EOFException("Body of " + url + " ended at " + position);
+      }
+
+      download.write(position, buffer, 0, n);
+      advance(i, n);
+    }
+  }
+
+  private synchronized long getPosition(int i) {
+    return positions[i];
+  }
+
+  private synchronized boolean isFailed() {
+    return failed;
+  }
+
+  private synchronized void advance(int i, int n) {
+    positions[i] += n;
+    bytes += n;
+
+    // Readers may read up to the first byte not yet written.
+    long contiguous = 0;
+    for (int k = 0; k < starts.length; k++) {
+      contiguous = positions[k];
+      if (ends[k] < 0 || positions[k] < ends[k]) break;
+    }
+    download.advance(contiguous);
+  }
+
+  private synchronized void segmentDone(int i) {
+    if (failed || --remaining > 0) return;
+
+    try {
+      download.complete();
+    } catch (IOException e) {
+      fail(e);
+      return;
+    }
+    completed = true;
+    Metrics.count("FetchBytes", host, bytes);
+    Metrics.stopTimer(startTime, "Fetch", host);
+  }
+
+  private synchronized void fail(IOException e) {
+    if (failed || completed) return;
+    failed = true;
+
+    download.fail(e);
+    Metrics.count("FetchError", host, 1);
+    Metrics.count("FetchBytes", host, bytes);
+    Metrics.stopTimer(startTime, "Fetch", host);
+  }
+}
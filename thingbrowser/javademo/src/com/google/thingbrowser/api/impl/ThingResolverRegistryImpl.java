@@ -30,51 +30,205 @@
 package com.google.thingbrowser.api.impl;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
+import com.google.thingbrowser.api.AsyncCallback;
+import com.google.thingbrowser.api.FetchScheduler;
+import com.google.thingbrowser.api.ModuleDescriptor;
 import com.google.thingbrowser.api.Thing;
 import com.google.thingbrowser.api.ThingContext;
+import com.google.thingbrowser.api.ThingExecutors;
 import com.google.thingbrowser.api.ThingResolver;
 import com.google.thingbrowser.api.ThingResolverRegistry;
-import com.google.thingbrowser.api.ThingViewFactory;
+import com.google.thingbrowser.api.ThingUrl;
+import com.google.thingbrowser.api.metrics.Metrics;
 
 /**
  * @author ihab@google.com (Ihab Awad)
  */
 public final class ThingResolverRegistryImpl implements ThingResolverRegistry {
 
+  // The maximum number of URLs of one batch that are resolved concurrently
+  // by the same resolver on the same host, so that a large batch does not
+  // flood one server.
+  private static final int BATCH_CONCURRENCY_PER_HOST =
+      Integer.getInteger("thingbrowser.batchConcurrencyPerHost", 4);
+
   private final ThingResolver mimeThingResolver = new UrlRetrievalMimeThingResolver();
 
-  private final Map<URL, ThingResolver> resolverByUrl =
-      new HashMap<URL, ThingResolver>();
+  // Overlapping resolver root URLs are allowed; a request URL is handled by
+  // the resolver with the longest root URL that is a prefix of it.
+  private final UrlPrefixTrie<ThingResolver> resolverByRootUrl =
+      new UrlPrefixTrie<ThingResolver>();
 
   public ThingResolverRegistryImpl() {}
 
   public void registerResolver(ThingResolver resolver) {
-    resolverByUrl.put(resolver.getRootUrl(), resolver);
+    resolverByRootUrl.put(ThingUrl.valueOf(resolver.getRootUrl()).getExternalForm(), resolver);
+  }
+
+  public void unregisterResolver(ThingResolver resolver) {
+    resolverByRootUrl.remove(ThingUrl.valueOf(resolver.getRootUrl()).getExternalForm(), resolver);
+  }
+
+  public void registerModule(ModuleDescriptor module) {
+    for (URL rootUrl : module.getResolverRootUrls()) {
+      registerResolver(new ModuleActivatingResolver(rootUrl, module));
+    }
   }
 
   public Thing getThing(ThingContext thingContext, URL url) {
     ThingResolver resolver = findResolver(url);
-    return (resolver == null) ? null : resolver.getThing(thingContext, url);
+    if (resolver == null) return null;
+    long startTime = Metrics.startTimer();
+    try {
+      return resolver.getThing(thingContext, url);
+    } finally {
+      Metrics.stopTimer(startTime, "Resolver", resolver.getRootUrl());
+    }
   }
 
-  private ThingResolver findResolver(URL requestUrl) {
+  public Future<Thing> getThingAsync(ThingContext thingContext, URL url) {
+    return getThingAsync(thingContext, url, null);
+  }
 
-    // TODO(ihab): This simplistic algorithm does not consider overlapping resolver
-    // root URLs. Either we should handle them cleanly, or we should disallow them
-    // by throwing an exception in the registerResolver(ThingResolver) method.
+  public Future<Thing> getThingAsync(
+      final ThingContext thingContext, final URL url, AsyncCallback<Thing> callback) {
+    // ThingResolvers are synchronous, so we adapt them by running them on
+    // the I/O pool.
+    return ThingExecutors.submit(ThingExecutors.getIoExecutor(), new Callable<Thing>() {
+      public Thing call() {
+        return getThing(thingContext, url);
+      }
+    }, callback);
+  }
 
-    String requestUrlString = requestUrl.toExternalForm();
+  public List<Future<Thing>> getThings(final ThingContext thingContext, Collection<URL> urls) {
+    List<Future<Thing>> results = new ArrayList<Future<Thing>>(urls.size());
+    Map<BatchGroup, Queue<FutureTask<Thing>>> tasksByGroup =
+        new HashMap<BatchGroup, Queue<FutureTask<Thing>>>();
 
-    for (URL resolverUrl : resolverByUrl.keySet()) {
-      String resolverUrlString = resolverUrl.toExternalForm();
-      if (requestUrlString.startsWith(resolverUrlString)) {
-        return resolverByUrl.get(resolverUrl);
+    for (final URL url : urls) {
+      final ThingResolver resolver = findResolver(url);
+      FutureTask<Thing> task = new FutureTask<Thing>(FetchScheduler.withCurrentPriority(
+          new Callable<Thing>() {
+            public Thing call() {
+              long startTime = Metrics.startTimer();
+              try {
+                return resolver.getThing(thingContext, url);
+              } finally {
+                Metrics.stopTimer(startTime, "Resolver", resolver.getRootUrl());
+              }
+            }
+          }));
+      results.add(task);
+
+      BatchGroup group = new BatchGroup(resolver, url);
+      Queue<FutureTask<Thing>> tasks = tasksByGroup.get(group);
+      if (tasks == null) {
+        tasks = new ConcurrentLinkedQueue<FutureTask<Thing>>();
+        tasksByGroup.put(group, tasks);
       }
+      tasks.add(task);
+    }
+
+    // Rather than submitting every task, start a few drainers per group.
+    // This bounds the concurrency per resolver and host without parking pool
+    // threads on a semaphore. A task that has been cancelled does nothing
+    // when run. The drainers run on a pool of their own, since callers often
+    // wait for the results on I/O threads.
+    for (Queue<FutureTask<Thing>> tasks : tasksByGroup.values()) {
+      int drainers = Math.min(tasks.size(), BATCH_CONCURRENCY_PER_HOST);
+      for (int i = 0; i < drainers; i++) {
+        ThingExecutors.getBatchExecutor().execute(new Drainer(tasks));
+      }
+    }
+
+    return Collections.unmodifiableList(results);
+  }
+
+  /**
+   * Stands in for the resolver of a module that has not been started. The
+   * first URL it is asked for starts the module, which registers its own
+   * resolver at the same root URL in place of this one.
+   */
+  private final class ModuleActivatingResolver implements ThingResolver {
+    private final URL rootUrl;
+    private final ModuleDescriptor module;
+
+    public ModuleActivatingResolver(URL rootUrl, ModuleDescriptor module) {
+      this.rootUrl = rootUrl;
+      this.module = module;
     }
 
-    return mimeThingResolver;
+    public URL getRootUrl() {
+      return rootUrl;
+    }
+
+    public Thing getThing(ThingContext thingContext, URL url) {
+      module.activate();
+      // In case the module did not replace us, make sure we are gone so the
+      // lookup below cannot come back here.
+      unregisterResolver(this);
+      return findResolver(url).getThing(thingContext, url);
+    }
+  }
+
+  /**
+   * The URLs of a batch handled by the same resolver on the same host, which
+   * are resolved with limited concurrency.
+   */
+  private static final class BatchGroup {
+    private final ThingResolver resolver;
+    private final String host;
+
+    public BatchGroup(ThingResolver resolver, URL url) {
+      this.resolver = resolver;
+      this.host = url.getHost().toLowerCase(Locale.ENGLISH);
+    }
+
+    public int hashCode() {
+      return System.identityHashCode(resolver) * 31 + host.hashCode();
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof BatchGroup)) return false;
+      BatchGroup g = (BatchGroup)o;
+      return resolver == g.resolver && host.equals(g.host);
+    }
+  }
+
+  private static final class Drainer implements Runnable {
+    private final Queue<FutureTask<Thing>> tasks;
+
+    public Drainer(Queue<FutureTask<Thing>> tasks) {
+      this.tasks = tasks;
+    }
+
+    public void run() {
+      FutureTask<Thing> task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+
+  private ThingResolver findResolver(URL requestUrl) {
+    // Root URLs are registered in canonical form, so we look up request URLs
+    // in the same form.
+    ThingResolver resolver = resolverByRootUrl.findLongestPrefix(
+        ThingUrl.valueOf(requestUrl).getExternalForm());
+    return (resolver == null) ? mimeThingResolver : resolver;
   }
 }
@@ -29,100 +29,193 @@
 
 package com.google.thingbrowser.api.impl;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
 
 import com.google.thingbrowser.api.Facet;
+import com.google.thingbrowser.api.ModuleDescriptor;
 import com.google.thingbrowser.api.Thing;
+import com.google.thingbrowser.api.ThingExecutors;
 import com.google.thingbrowser.api.ThingView;
 import com.google.thingbrowser.api.ThingViewFactory;
 import com.google.thingbrowser.api.ThingViewRegistry;
 import com.google.thingbrowser.api.ViewFormat;
+import com.google.thingbrowser.api.metrics.Metrics;
 
 /**
  * @author ihab@google.com (Ihab Awad)
  */
 public class ThingViewRegistryImpl implements ThingViewRegistry {
 
-  private static class FactorySignature {
+  /**
+   * The key of the dispatch cache: a view format and the complete set of
+   * Facet types of some Thing. All Things with equal keys are offered the
+   * same factories in the same order.
+   */
+  private static class DispatchKey {
 
     private final ViewFormat format;
-    private final Class<? extends Facet> facetType;
+    private final Set<Class<? extends Facet>> facetTypes;
 
-    public FactorySignature(ViewFormat format, Class<? extends Facet> facetType) {
+    public DispatchKey(ViewFormat format, Set<Class<? extends Facet>> facetTypes) {
       this.format = format;
-      this.facetType = facetType;
-    }
-
-    public FactorySignature(ThingViewFactory factory) {
-      this(factory.getSupportedFormat(), factory.getRequiredFacetType());
+      this.facetTypes = facetTypes;
     }
 
     public int hashCode() {
-      return facetType.hashCode() + format.hashCode();
+      return facetTypes.hashCode() + format.hashCode();
     }
 
     public boolean equals(Object o) {
       try {
-        FactorySignature s = (FactorySignature)o;
+        DispatchKey k = (DispatchKey)o;
         return
-          format == s.format &&
-          facetType == s.facetType;
+          format == k.format &&
+          facetTypes.equals(k.facetTypes);
       } catch (ClassCastException e) {
         return false;
       }
     }
+  }
+
+  private static final Comparator<ThingViewFactory> BY_DESCENDING_PREFERENCE =
+      new Comparator<ThingViewFactory>() {
+        public int compare(ThingViewFactory a, ThingViewFactory b) {
+          return Double.compare(b.getPreference(), a.getPreference());
+        }
+      };
+
+  private final List<ThingViewFactory> factories = new ArrayList<ThingViewFactory>();
+
+  private final Map<DispatchKey, List<ThingViewFactory>> rankingByKey =
+      new ConcurrentHashMap<DispatchKey, List<ThingViewFactory>>();
 
-    public boolean isSupertypeOf(FactorySignature s) {
-      if (this.format != s.format) return false;
-      if (this.facetType.isAssignableFrom(s.facetType)) return true;
-      return false;
+  // Modules registered but not yet started.
+  private final List<ModuleDescriptor> pendingModules =
+      new CopyOnWriteArrayList<ModuleDescriptor>();
+
+  public void registerModule(ModuleDescriptor module) {
+    if (module.isActive()) return;
+    pendingModules.add(module);
+  }
+
+  public synchronized void registerFactory(ThingViewFactory factory) {
+    if (factories.contains(factory)) return;
+    factories.add(factory);
+    rankingByKey.clear();
+  }
+
+  public void startModulesFor(Thing thing) {
+    if (!pendingModules.isEmpty() && thing != null) {
+      activatePendingModules(thing.getFacetTypes());
     }
   }
 
-  private final Map<FactorySignature, Collection<ThingViewFactory>> factoriesBySignature =
-      new HashMap<FactorySignature, Collection<ThingViewFactory>>();
+  public ThingView newView(ViewFormat viewFormat, final Thing thing) {
+    if (!pendingModules.isEmpty() && thing != null) {
+      if (!SwingUtilities.isEventDispatchThread()) {
+        startModulesFor(thing);
+      } else if (selectFactories(viewFormat, thing).isEmpty()) {
+        // Nothing started so far can show the Thing, so rather than return no
+        // view at all, we have to wait for the modules that can.
+        startModulesFor(thing);
+      } else {
+        // Not blocking the UI on a module; its views are offered once started.
+        ThingExecutors.getWorkerExecutor().execute(new Runnable() {
+          public void run() {
+            startModulesFor(thing);
+          }
+        });
+      }
+    }
 
-  public void registerFactory(ThingViewFactory factory) {
-    FactorySignature signature = new FactorySignature(factory);
-    Collection<ThingViewFactory> set = factoriesBySignature.get(signature);
-    if (set == null) {
-      set = new HashSet<ThingViewFactory>();
-      factoriesBySignature.put(signature, set);
+    for (ThingViewFactory factory : selectFactories(viewFormat, thing)) {
+      long startTime = Metrics.startTimer();
+      ThingView view;
+      try {
+        view = factory.newView(thing);
+      } finally {
+        Metrics.stopTimer(startTime, "ViewFactory", factory.getClass());
+      }
+      if (view != null) return view;
     }
-    set.add(factory);
+    return null;
   }
 
-  public ThingView newView(ViewFormat viewFormat, Thing thing) {
-    ThingViewFactory factory = selectFactory(viewFormat, thing);
-    return (factory == null) ? null : factory.newView(thing);
+  // Called without holding our lock, since starting a module registers
+  // factories with us.
+  private void activatePendingModules(Set<Class<? extends Facet>> facetTypes) {
+    List<ModuleDescriptor> modules = new ArrayList<ModuleDescriptor>();
+    for (ModuleDescriptor module : pendingModules) {
+      if (module.isActive()) {
+        pendingModules.remove(module);
+      } else if (module.providesViewsFor(facetTypes)) {
+        modules.add(module);
+      }
+    }
+    if (modules.isEmpty()) return;
+    ModuleDescriptor.activateAll(modules);
+    // Modules that failed to start stay pending, to be tried again.
+    for (ModuleDescriptor module : modules) {
+      if (module.isActive()) pendingModules.remove(module);
+    }
   }
 
-  private ThingViewFactory selectFactory(ViewFormat viewFormat, Thing thing) {
+  private List<ThingViewFactory> selectFactories(ViewFormat viewFormat, Thing thing) {
     if (viewFormat == null) throw new Error();
     if (thing == null) throw new Error();
 
-    SortedMap<Double, ThingViewFactory> factoriesByPreference =
-      new TreeMap<Double, ThingViewFactory>();
+    Set<Class<? extends Facet>> facetTypes = thing.getFacetTypes();
 
-    for (Iterator<Class<? extends Facet>> i = thing.getFacetTypes().iterator(); i.hasNext(); ) {
-      FactorySignature thingSignature = new FactorySignature(viewFormat, i.next());
-      for (Iterator<FactorySignature> j = factoriesBySignature.keySet().iterator(); j.hasNext(); ) {
-        FactorySignature candidateSignature = j.next();
-        if (candidateSignature.isSupertypeOf(thingSignature)) {
-          for (ThingViewFactory f : factoriesBySignature.get(candidateSignature)) {
-            factoriesByPreference.put(f.getPreference(), f);
-          }
+    List<ThingViewFactory> ranking = rankingByKey.get(new DispatchKey(viewFormat, facetTypes));
+    if (ranking != null) return ranking;
+
+    // Copy the facet types, since the Thing may change its own set later.
+    DispatchKey key = new DispatchKey(
+        viewFormat,
+        Collections.unmodifiableSet(new HashSet<Class<? extends Facet>>(facetTypes)));
+
+    synchronized (this) {
+      ranking = rankingByKey.get(key);
+      if (ranking == null) {
+        ranking = rankFactories(key);
+        rankingByKey.put(key, ranking);
+      }
+    }
+
+    return ranking;
+  }
+
+  /**
+   * Collect the factories that can display a Thing with the Facet types in
+   * the specified key, most preferred first. Factories with equal preference
+   * keep the order in which they were registered.
+   */
+  private List<ThingViewFactory> rankFactories(DispatchKey key) {
+    Set<ThingViewFactory> matches = new LinkedHashSet<ThingViewFactory>();
+
+    for (ThingViewFactory f : factories) {
+      if (f.getSupportedFormat() != key.format) continue;
+      for (Class<? extends Facet> facetType : key.facetTypes) {
+        if (f.getRequiredFacetType().isAssignableFrom(facetType)) {
+          matches.add(f);
+          break;
         }
       }
     }
 
-    return factoriesByPreference.isEmpty() ?
-      null : factoriesByPreference.get(factoriesByPreference.lastKey());
+    List<ThingViewFactory> result = new ArrayList<ThingViewFactory>(matches);
+    Collections.sort(result, BY_DESCENDING_PREFERENCE);
+    return Collections.unmodifiableList(result);
   }
 }
@@ -0,0 +1,166 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A map from URL prefixes to values that answers longest-prefix queries.
+ *
+ * <p>URLs are compared segment by segment (the pieces between '/' characters),
+ * so a prefix of "http://example.com/foo" matches "http://example.com/foo/bar"
+ * but not "http://example.com/foobar". A trailing '/' on a prefix is ignored,
+ * as are any query and fragment parts of a URL being looked up.
+ *
+ * <p>The trie is persistent: every update copies the path from the root to the
+ * changed node and then publishes a new root. Lookups therefore never lock and
+ * always see a consistent snapshot, while updates are serialized.
+ */
+final class UrlPrefixTrie<V> {
+
+  private static final class Node<V> {
+
+    private final V value;
+    private final Map<String, Node<V>> children;
+
+    public Node(V value, Map<String, Node<V>> children) {
+      this.value = value;
+      this.children = children;
+    }
+
+    public boolean isEmpty() {
+      return value == null && children.isEmpty();
+    }
+  }
+
+  private volatile Node<V> root =
+      new Node<V>(null, Collections.<String, Node<V>>emptyMap());
+
+  /**
+   * Map a URL prefix to a value, replacing any value previously mapped
+   * to the same prefix.
+   *
+   * @param prefix the external form of a URL prefix.
+   * @param value the value to map; may not be null.
+   */
+  public synchronized void put(String prefix, V value) {
+    if (value == null) throw new NullPointerException();
+    root = put(root, splitPrefix(prefix), 0, value);
+  }
+
+  /**
+   * Remove the mapping for a URL prefix, but only if it is currently mapped
+   * to the specified value.
+   *
+   * @return whether the mapping was removed.
+   */
+  public synchronized boolean remove(String prefix, V value) {
+    String[] segments = splitPrefix(prefix);
+    if (get(segments) != value) return false;
+    root = remove(root, segments, 0);
+    return true;
+  }
+
+  /**
+   * Find the value mapped to the longest prefix of the specified URL.
+   *
+   * @param url the external form of a URL.
+   *
+   * @return the value, or <code>null</code> if no prefix matches.
+   */
+  public V findLongestPrefix(String url) {
+    Node<V> node = root;
+    V result = node.value;
+
+    int end = url.length();
+    int queryIndex = url.indexOf('?');
+    if (queryIndex != -1) end = queryIndex;
+    int fragmentIndex = url.indexOf('#');
+    if (fragmentIndex != -1 && fragmentIndex < end) end = fragmentIndex;
+
+    int start = 0;
+    while (start <= end) {
+      int slash = url.indexOf('/', start);
+      if (slash == -1 || slash > end) slash = end;
+      node = node.children.get(url.substring(start, slash));
+      if (node == null) break;
+      if (node.value != null) result = node.value;
+      start = slash + 1;
+    }
+
+    return result;
+  }
+
+  private V get(String[] segments) {
+    Node<V> node = root;
+    for (int i = 0; i < segments.length && node != null; i++) {
+      node = node.children.get(segments[i]);
+    }
+    return (node == null) ? null : node.value;
+  }
+
+  private static <V> Node<V> put(Node<V> node, String[] segments, int index, V value) {
+    if (index == segments.length) {
+      return new Node<V>(value, node.children);
+    }
+    Node<V> child = node.children.get(segments[index]);
+    if (child == null) {
+      child = new Node<V>(null, Collections.<String, Node<V>>emptyMap());
+    }
+    return withChild(node, segments[index], put(child, segments, index + 1, value));
+  }
+
+  private static <V> Node<V> remove(Node<V> node, String[] segments, int index) {
+    if (index == segments.length) {
+      return new Node<V>(null, node.children);
+    }
+    Node<V> child = remove(node.children.get(segments[index]), segments, index + 1);
+    return withChild(node, segments[index], child.isEmpty() ? null : child);
+  }
+
+  private static <V> Node<V> withChild(Node<V> node, String segment, Node<V> child) {
+    Map<String, Node<V>> children = new HashMap<String, Node<V>>(node.children);
+    if (child == null) {
+      children.remove(segment);
+    } else {
+      children.put(segment, child);
+    }
+    return new Node<V>(node.value, Collections.unmodifiableMap(children));
+  }
+
+  private static String[] splitPrefix(String prefix) {
+    if (prefix.endsWith("/")) {
+      prefix = prefix.substring(0, prefix.length() - 1);
+    }
+    return prefix.split("/", -1);
+  }
+}
@@ -29,97 +29,417 @@
 
 package com.google.thingbrowser.api.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.concurrent.Callable;
 
 import com.google.thingbrowser.api.AbstractFacet;
+import com.google.thingbrowser.api.FetchPriority;
+import com.google.thingbrowser.api.FetchScheduler;
 import com.google.thingbrowser.api.MimeResourceFacet;
 import com.google.thingbrowser.api.Thing;
+import com.google.thingbrowser.api.ThingExecutors;
+import com.google.thingbrowser.api.ThingUrl;
+import com.google.thingbrowser.api.impl.cache.CacheEntryMetadata;
+import com.google.thingbrowser.api.impl.cache.CachePolicy;
+import com.google.thingbrowser.api.impl.cache.ContentEncoding;
+import com.google.thingbrowser.api.impl.cache.DiskCache;
+import com.google.thingbrowser.api.impl.cache.EntryLock;
+import com.google.thingbrowser.api.impl.cache.MemoryCache;
+import com.google.thingbrowser.api.impl.cache.PartialEntry;
+import com.google.thingbrowser.api.metrics.Metrics;
 
 /**
+ * A <code>MimeResourceFacet</code> that retrieves its resource from the URL
+ * of its Thing and caches it in the default {@link DiskCache}.
+ *
+ * <p>The resource is retrieved with a single request, from which both the
+ * response headers and the body are taken. The headers are stored beside the
+ * cached body, so once the resource has been retrieved, neither
+ * {@link #getMimeType()} nor reading the body touches the network again.
+ *
+ * <p>Retrieval returns as soon as the headers arrive, and the body is
+ * downloaded into a {@link PartialEntry} in the background by a
+ * {@link SegmentedDownload}, in concurrent byte ranges if it is large. Streams from
+ * {@link #newInputStream()} follow the download, so clients can start
+ * decoding after the first bytes rather than the last. Facets of other Things
+ * with the same URL follow the same download instead of starting another.
+ * {@link #getByteBuffer()} and {@link #getFile()} wait for the whole body.
+ *
+ * <p>Requests are made through the default {@link FetchScheduler}, at the
+ * priority of the thread that retrieves the resource. The resource is fetched
+ * only while holding the {@link EntryLock} on its cache entry. Anyone else wanting it meanwhile, in this process or another,
+ * waits for the lock and then uses what was fetched.
+ *
+ * <p>A cached copy that is still fresh according to its Cache-Control or
+ * Expires headers is used without any request. Otherwise it is revalidated
+ * with a conditional request carrying its ETag and Last-Modified time, and a
+ * "304 Not Modified" response lets us keep it without transferring the body.
+ * Under the {@link CachePolicy} of the cache, the copy is by default used at
+ * once and revalidated in the background; if it turns out to have changed,
+ * the facet switches to the new content and fires a "content" property
+ * change. Whether it changed is decided by its validators, or if it has none,
+ * by comparing digests of the old and new content. Working offline, the copy
+ * is used as is.
+ *
+ * <p>Requests accept compressed responses, and bodies are stored in the cache
+ * as they arrive, or compressed if they compress well, and decompressed as
+ * they are read. {@link #getByteBuffer()} and {@link #getFile()} of a
+ * compressed body decompress it into a file kept in the cache with the
+ * entry, shared by all readers and evicted with it.
+ *
+ * <p>Small resources read often are served from the {@link MemoryCache} of
+ * the disk cache, without touching the file system; while they stay fresh,
+ * not even their metadata is read from disk. Otherwise
+ * {@link #getByteBuffer()} maps the cached body into memory once, and hands
+ * out read-only views of that mapping.
+ *
  * @author ihab@google.com (Ihab Awad)
  */
 public class UrlRetrievalMimeResourceFacet extends AbstractFacet
     implements MimeResourceFacet {
 
-  private static final File cacheDirectory =
-    new File(System.getProperty("user.home") + File.separator + ".thingbrowser" + File.separator + "cache");
+  /**
+   * The outcome of a fetch: the metadata of the resource, and the download
+   * of its body if one was started or followed.
+   */
+  private static final class Retrieval {
+    private final CacheEntryMetadata metadata;
+    private final PartialEntry download;
+    private final boolean notModified;
 
-  private String cacheFilename = null;
-  private String mimeType = null;
+    public Retrieval(CacheEntryMetadata metadata, PartialEntry download, boolean notModified) {
+      this.metadata = metadata;
+      this.download = download;
+      this.notModified = notModified;
+    }
+  }
+
+  private final DiskCache cache = DiskCache.getDefault();
+  private final String cacheKey;
+  private CacheEntryMetadata metadata = null;
+  private PartialEntry download = null;
+  private MappedByteBuffer mappedBody = null;
+  private boolean revalidating = false;
 
   public UrlRetrievalMimeResourceFacet(Thing thing) {
     super(thing);
+    cacheKey = DiskCache.keyFor(ThingUrl.valueOf(thing.getUrl()));
   }
 
   public String getMimeType() {
-    updateMimeType();
-    return mimeType;
+    return retrieve().getContentType();
+  }
+
+  public long getContentLength() {
+    CacheEntryMetadata metadata = retrieve();
+    // We cannot tell how long a compressed body is until it is decompressed.
+    return ContentEncoding.isIdentity(metadata.getContentEncoding()) ?
+        metadata.getContentLength() : -1;
   }
 
   public InputStream newInputStream() {
-    updateDataCache();
+    CacheEntryMetadata metadata = retrieve();
+    PartialEntry download = getDownload();
     try {
-      return new FileInputStream(getCacheFile());
-    } catch (FileNotFoundException e) {
+      if (download != null) {
+        raiseDownload();
+        return download.newInputStream();
+      }
+      MemoryCache.Entry hot = readFromMemory(metadata);
+      if (hot != null) {
+        return ContentEncoding.decode(
+            new ByteArrayInputStream(hot.getBody()), hot.getMetadata().getContentEncoding());
+      }
+      return ContentEncoding.decode(
+          new FileInputStream(cache.getBodyFile(cacheKey)), metadata.getContentEncoding());
+    } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
+  public ByteBuffer getByteBuffer() {
+    CacheEntryMetadata metadata = retrieve();
+    if (getDownload() == null) {
+      MemoryCache.Entry hot = readFromMemory(metadata);
+      if (hot != null) return ByteBuffer.wrap(decode(hot)).asReadOnlyBuffer();
+    }
+    return getMappedBody().asReadOnlyBuffer();
+  }
+
   public File getFile() {
-    updateDataCache();
-    return getCacheFile();
+    retrieve();
+    return getDecodedBodyFile();
   }
 
-  private synchronized void updateMimeType() {
-    if (mimeType != null) return;
-    URLConnection connection;
+  private synchronized CacheEntryMetadata retrieve() {
+    if (metadata != null && (download == null || !download.hasFailed())) {
+      return metadata;
+    }
+    metadata = null;
+    download = null;
+    mappedBody = null;
+
+    String host = getThing().getUrl().getHost();
+
+    // Follow a download of the same resource already in progress rather than
+    // starting another.
+    PartialEntry inProgress = cache.getPartial(cacheKey);
+    if (inProgress != null) {
+      Metrics.count("CacheFollow", host, 1);
+      raiseDownload();
+      download = inProgress;
+      metadata = inProgress.getMetadata();
+      return metadata;
+    }
+
+    long now = System.currentTimeMillis();
+    CachePolicy policy = cache.getPolicy();
+
+    // Unless we are to revalidate it first, a copy in memory is as good as
+    // the one on disk.
+    MemoryCache.Entry hot = cache.getMemoryCache().get(cacheKey);
+    CacheEntryMetadata cached =
+        (hot != null && (policy != CachePolicy.REVALIDATE || hot.getMetadata().isFresh(now))) ?
+        hot.getMetadata() :
+        cache.get(cacheKey);
+
+    if (cached != null && cached.isFresh(now)) {
+      Metrics.count("CacheFresh", host, 1);
+      metadata = cached;
+      return metadata;
+    }
+
+    if (policy == CachePolicy.OFFLINE) {
+      if (cached == null) {
+        throw new RuntimeException(
+            new IOException("Working offline, and " + getThing().getUrl() + " is not cached"));
+      }
+      Metrics.count("CacheOffline", host, 1);
+      metadata = cached;
+      return metadata;
+    }
+
+    if (cached != null && policy == CachePolicy.STALE_WHILE_REVALIDATE) {
+      Metrics.count("CacheStale", host, 1);
+      metadata = cached;
+      revalidateInBackground(cached);
+      return metadata;
+    }
+
+    Retrieval retrieval = fetch(cached);
+    metadata = retrieval.metadata;
+    download = retrieval.download;
+    return metadata;
+  }
+
+  /**
+   * Fetch the resource, or revalidate the cached copy of it, or failing that,
+   * use what another Thing or process fetched while we waited to.
+   *
+   * @param cached the cached copy, or <code>null</code> if there is none.
+   *
+   * @return what was retrieved.
+   */
+  private Retrieval fetch(CacheEntryMetadata cached) {
+    String host = getThing().getUrl().getHost();
+
+    // Fetch the resource only while holding the lock on its entry, so that
+    // however many Things, in however many processes, want it at once, it is
+    // fetched once.
+    EntryLock lock;
+    try {
+      lock = cache.tryLock(cacheKey);
+      if (lock == null) {
+        raiseDownload();
+        lock = cache.lock(cacheKey);
+        if (lock == null) {
+          // Another Thing began downloading the resource while we waited.
+          PartialEntry inProgress = cache.getPartial(cacheKey);
+          if (inProgress != null) {
+            Metrics.count("CacheFollow", host, 1);
+            return new Retrieval(inProgress.getMetadata(), inProgress, false);
+          }
+          CacheEntryMetadata fetched = cache.get(cacheKey);
+          if (fetched != null) {
+            Metrics.count("CacheFollow", host, 1);
+            return new Retrieval(fetched, null, false);
+          }
+          return fetch(cached);
+        }
+        CacheEntryMetadata fetched = cache.get(cacheKey);
+        if (fetched != null
+            && (cached == null || fetched.getFetchedAt() > cached.getFetchedAt())) {
+          // Another Thing or process fetched the resource while we waited.
+          lock.release();
+          Metrics.count("CacheFollow", host, 1);
+          return new Retrieval(fetched, null, false);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    FetchScheduler.Permit permit = null;
+    boolean lockPassed = false;
+    long startTime = Metrics.startTimer();
+
     try {
-      connection = getThing().getUrl().openConnection();
+      permit = FetchScheduler.getDefault().acquire(getThing().getUrl());
+      URLConnection connection = getThing().getUrl().openConnection();
+      connection.setRequestProperty("Accept-Encoding", ContentEncoding.ACCEPT);
+
+      if (cached != null) {
+        if (cached.getEtag() != null) {
+          connection.setRequestProperty("If-None-Match", cached.getEtag());
+        }
+        if (cached.getLastModified() != 0) {
+          connection.setIfModifiedSince(cached.getLastModified());
+        }
+      }
+
+      CacheEntryMetadata response = CacheEntryMetadata.fromConnection(connection);
+      if (cached != null && response.getStatusCode() == CacheEntryMetadata.NOT_MODIFIED) {
+        Metrics.count("CacheNotModified", host, 1);
+        response = cached.revalidatedBy(response);
+        cache.put(cacheKey, response);
+        Metrics.stopTimer(startTime, "Fetch", host);
+        return new Retrieval(response, null, true);
+      }
+
+      if (!ContentEncoding.isSupported(response.getContentEncoding())) {
+        throw new IOException(
+            "Unsupported content encoding " + response.getContentEncoding() + " from " + getThing().getUrl());
+      }
+      InputStream is = connection.getInputStream();
+      PartialEntry started;
+      try {
+        started = cache.beginPartial(lock, response);
+      } catch (IOException e) {
+        is.close();
+        throw e;
+      }
+      lockPassed = true;
+      // Return as soon as we have the headers, and let readers follow the
+      // body as it arrives.
+      SegmentedDownload.start(
+          getThing().getUrl(), connection, is, permit, started, host, startTime);
+      permit = null;
+      return new Retrieval(response, started, false);
     } catch (IOException e) {
+      Metrics.count("FetchError", host, 1);
+      Metrics.stopTimer(startTime, "Fetch", host);
       throw new RuntimeException(e);
+    } finally {
+      // Unless the download now owns them
+      if (permit != null) permit.release();
+      if (!lockPassed) lock.release();
     }
-    mimeType = connection.getContentType();
   }
 
-  private synchronized void updateDataCache() {
-    if (cacheFilename != null) return;
+  /**
+   * Revalidate the cached copy we are using on the I/O pool, and if it turns
+   * out to have changed, switch to the new content and tell our Thing.
+   */
+  private void revalidateInBackground(final CacheEntryMetadata cached) {
+    if (revalidating) return;
+    revalidating = true;
 
-    if (!cacheDirectory.exists()) {
-      cacheDirectory.mkdirs();
+    // This is less urgent than whatever the user is waiting for, but more so
+    // than prefetching what they might look at next.
+    FetchPriority previous = FetchScheduler.setCurrentPriority(FetchPriority.VISIBLE);
+    try {
+      ThingExecutors.submit(
+          ThingExecutors.getIoExecutor(),
+          new Callable<Void>() {
+            public Void call() throws IOException {
+              try {
+                revalidate(cached);
+              } finally {
+                synchronized (UrlRetrievalMimeResourceFacet.this) {
+                  revalidating = false;
+                }
+              }
+              return null;
+            }
+          },
+          null);
+    } finally {
+      FetchScheduler.setCurrentPriority(previous);
     }
+  }
 
-    cacheFilename = getCacheFilename();
+  private void revalidate(CacheEntryMetadata cached) throws IOException {
+    // Without validators the server cannot tell us whether the content has
+    // changed, so we must compare it ourselves.
+    boolean compareContent = cached.getEtag() == null && cached.getLastModified() == 0;
+    byte[] oldDigest = compareContent ?
+        digest(ContentEncoding.decode(
+            new FileInputStream(cache.getBodyFile(cacheKey)), cached.getContentEncoding())) :
+        null;
 
-    URLConnection connection;
+    Retrieval retrieval;
     try {
-      connection = getThing().getUrl().openConnection();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+      retrieval = fetch(cached);
+    } catch (RuntimeException e) {
+      // We go on using the copy we have.
+      return;
     }
 
-    long lastModified = connection.getLastModified();
+    // Switch to what we retrieved at once, since a new body replaces the
+    // old one in the cache, in an encoding and length only its metadata
+    // describes.
+    synchronized (this) {
+      // Unless we have moved on since, for example to retry a failed download
+      if (metadata != cached) return;
+      metadata = retrieval.metadata;
+      download = retrieval.download;
+      if (!retrieval.notModified) {
+        mappedBody = null;
+      }
+    }
 
-    File cacheFile = getCacheFile();
+    boolean changed;
+    if (retrieval.notModified) {
+      changed = false;
+    } else if (compareContent) {
+      InputStream is = (retrieval.download != null) ?
+          retrieval.download.newInputStream() :
+          ContentEncoding.decode(
+              new FileInputStream(cache.getBodyFile(cacheKey)),
+              retrieval.metadata.getContentEncoding());
+      changed = !MessageDigest.isEqual(oldDigest, digest(is));
+    } else {
+      changed = !sameValidators(cached, retrieval.metadata);
+    }
 
-    if (!cacheFile.exists() || lastModified > cacheFile.lastModified()) {
-      updateCacheFile(connection, cacheFile, lastModified);
+    if (changed) {
+      Metrics.count("CacheChanged", getThing().getUrl().getHost(), 1);
+      firePropertyChange("content", null, null);
     }
   }
 
-  private File getCacheFile() {
-    return new File(cacheDirectory, cacheFilename);
+  private static boolean sameValidators(CacheEntryMetadata a, CacheEntryMetadata b) {
+    if (a.getEtag() != null || b.getEtag() != null) {
+      return a.getEtag() != null && a.getEtag().equals(b.getEtag());
+    }
+    return a.getLastModified() != 0 && a.getLastModified() == b.getLastModified();
   }
 
-  private String getCacheFilename() {
+  private static byte[] digest(InputStream is) throws IOException {
     MessageDigest digest;
     try {
       digest = MessageDigest.getInstance("MD5");
@@ -127,43 +447,139 @@ public class UrlRetrievalMimeResourceFacet extends AbstractFacet
       throw new Error(e);  // We should always have MD5
     }
 
-    byte[] input = getThing().getUrl().toExternalForm().getBytes();
-    byte[] result = digest.digest(input);
+    try {
+      byte[] buffer = new byte[32 * 1024];
+      int n;
+      while ((n = is.read(buffer)) >= 0) {
+        digest.update(buffer, 0, n);
+      }
+    } finally {
+      is.close();
+    }
+    return digest.digest();
+  }
 
-    return bytesToHexString(result) + ".cache";
+  private synchronized PartialEntry getDownload() {
+    return download;
   }
 
-  private void updateCacheFile(URLConnection connection, File cacheFile, long lastModified) {
-    if (cacheFile.exists()) {
-      cacheFile.delete();
-    }
+  /**
+   * @return the entry, if it is or may now be held in memory, or
+   * <code>null</code> if its body should be read from the file.
+   */
+  private MemoryCache.Entry readFromMemory(CacheEntryMetadata metadata) {
+    return cache.getMemoryCache().read(cacheKey, metadata, cache.getBodyFile(cacheKey));
+  }
+
+  private static byte[] decode(MemoryCache.Entry entry) {
+    String encoding = entry.getMetadata().getContentEncoding();
+    if (ContentEncoding.isIdentity(encoding)) return entry.getBody();
 
+    ByteArrayOutputStream out = new ByteArrayOutputStream(entry.getBody().length * 4);
     try {
-      InputStream is = connection.getInputStream();
-      OutputStream os = new FileOutputStream(cacheFile);
-      byte[] buffer = new byte[2048];
+      copy(ContentEncoding.decode(new ByteArrayInputStream(entry.getBody()), encoding), out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return out.toByteArray();
+  }
+
+  private MappedByteBuffer getMappedBody() {
+    synchronized (this) {
+      if (mappedBody != null) return mappedBody;
+    }
+
+    retrieve();
+
+    // Wait for the body without holding our lock, so that getMimeType() need
+    // not wait too.
+    File body = getDecodedBodyFile();
+    MappedByteBuffer mapped;
 
-      while (true) {
-        int n = is.read(buffer);
-        if (n < 0) break;
-        os.write(buffer, 0, n);
+    try {
+      // The mapping stays valid after the channel is closed, and since the
+      // cache replaces a body by writing a new file, it is never changed
+      // underneath us.
+      FileChannel channel = new RandomAccessFile(body, "r").getChannel();
+      try {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        channel.close();
       }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
 
-      os.flush();
-      os.close();
-      is.close();
+    synchronized (this) {
+      if (mappedBody == null) mappedBody = mapped;
+      return mappedBody;
+    }
+  }
+
+  /**
+   * Raise the download of the resource, which the current thread is about to
+   * wait on, to the current thread's priority. Otherwise a prefetch the user
+   * then navigates to would go on waiting behind other prefetches, and be
+   * cancelled with them.
+   */
+  private void raiseDownload() {
+    FetchScheduler.getDefault().raise(
+        Collections.singleton(ThingUrl.valueOf(getThing().getUrl())),
+        FetchScheduler.getCurrentPriority());
+  }
+
+  /**
+   * @return the file holding the whole body, waiting for the download of the
+   * body to complete if need be.
+   */
+  private File getCompleteBodyFile() {
+    PartialEntry download = getDownload();
+    if (download == null) return cache.getBodyFile(cacheKey);
+
+    raiseDownload();
+    try {
+      download.awaitComplete();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+    return download.getFile();
+  }
+
+  /**
+   * @return a file holding the whole body, decompressed, waiting for the
+   * download of the body to complete if need be. The decompressed copy of a
+   * compressed body is kept in the cache alongside the entry.
+   */
+  private File getDecodedBodyFile() {
+    File body = getCompleteBodyFile();
+    PartialEntry download = getDownload();
+    CacheEntryMetadata stored;
+    synchronized (this) {
+      stored = (download != null) ? download.getMetadata() : metadata;
+    }
+    if (ContentEncoding.isIdentity(stored.getContentEncoding())) return body;
 
-    cacheFile.setLastModified(lastModified);
+    try {
+      if (!body.equals(cache.getBodyFile(cacheKey))) {
+        // The download completed but could not be committed to the cache, so
+        // there is no entry to keep a decompressed copy with.
+        throw new IOException("Compressed body of " + cacheKey + " is not cached");
+      }
+      return cache.getDecodedFile(cacheKey, stored);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
-  private static String bytesToHexString(byte[] bytes) {
-    StringBuffer sb = new StringBuffer(bytes.length * 2);
-    for (int i = 0; i < bytes.length; i++) {
-      sb.append(Integer.toHexString(bytes[i]));
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    try {
+      byte[] buffer = new byte[32 * 1024];
+      int n;
+      while ((n = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, n);
+      }
+    } finally {
+      in.close();
     }
-    return sb.toString();
   }
 }
@@ -29,6 +29,8 @@
 
 package com.google.thingbrowser.api.impl;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.net.URL;
 
 import com.google.thingbrowser.api.AbstractMimeThing;
@@ -41,6 +43,14 @@ import com.google.thingbrowser.api.UrlUtilities;
  */
 public class UrlRetrievalMimeThing extends AbstractMimeThing {
 
+  // Our facet fires "content" when it finds, revalidating in the background,
+  // that the cached copy it was serving has changed.
+  private final PropertyChangeListener contentListener = new PropertyChangeListener() {
+    public void propertyChange(PropertyChangeEvent e) {
+      reload();
+    }
+  };
+
   public UrlRetrievalMimeThing(ThingContext thingContext, URL url) {
     super(thingContext, url);
     setMetadata();
@@ -51,7 +61,9 @@ public class UrlRetrievalMimeThing extends AbstractMimeThing {
   }
   
   protected MimeResourceFacet newMimeResourceFacet() {
-    return new UrlRetrievalMimeResourceFacet(this);
+    MimeResourceFacet facet = new UrlRetrievalMimeResourceFacet(this);
+    facet.addPropertyChangeListener("content", contentListener);
+    return facet;
   }
 
   private void setMetadata() {
@@ -0,0 +1,324 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * The response metadata of a cached resource: its status, content type,
+ * and the encoding and length of its body as stored, and the validators and
+ * freshness information needed to revalidate it. Instances are immutable,
+ * and are stored beside the cached body as a properties file so that they
+ * survive restarts.
+ */
+public final class CacheEntryMetadata {
+
+  private static final String URL = "url";
+  private static final String STATUS_CODE = "statusCode";
+  private static final String CONTENT_TYPE = "contentType";
+  private static final String CONTENT_ENCODING = "contentEncoding";
+  private static final String CONTENT_LENGTH = "contentLength";
+  private static final String LAST_MODIFIED = "lastModified";
+  private static final String ETAG = "etag";
+  private static final String CACHE_CONTROL = "cacheControl";
+  private static final String EXPIRES = "expires";
+  private static final String FETCHED_AT = "fetchedAt";
+
+  private final String url;
+  private final int statusCode;
+  private final String contentType;
+  private final String contentEncoding;
+  private final long contentLength;
+  private final long lastModified;
+  private final String etag;
+  private final String cacheControl;
+  private final long expires;
+  private final long fetchedAt;
+
+  /**
+   * The HTTP status code of a response telling us that our cached copy is
+   * still current.
+   */
+  public static final int NOT_MODIFIED = HttpURLConnection.HTTP_NOT_MODIFIED;
+
+  private CacheEntryMetadata(
+      String url, int statusCode, String contentType, String contentEncoding,
+      long contentLength, long lastModified, String etag, String cacheControl,
+      long expires, long fetchedAt) {
+    this.url = url;
+    this.statusCode = statusCode;
+    this.contentType = contentType;
+    this.contentEncoding = contentEncoding;
+    this.contentLength = contentLength;
+    this.lastModified = lastModified;
+    this.etag = etag;
+    this.cacheControl = cacheControl;
+    this.expires = expires;
+    this.fetchedAt = fetchedAt;
+  }
+
+  /**
+   * Capture the response metadata of a connection, connecting it if it has
+   * not been connected already. The body of the response is left unread.
+   *
+   * @param connection a connection.
+   *
+   * @return the metadata of its response.
+   *
+   * @throws IOException if the connection fails.
+   */
+  public static CacheEntryMetadata fromConnection(URLConnection connection) throws IOException {
+    int statusCode = (connection instanceof HttpURLConnection) ?
+        ((HttpURLConnection)connection).getResponseCode() :
+        -1;
+    return new CacheEntryMetadata(
+        connection.getURL().toExternalForm(),
+        statusCode,
+        connection.getContentType(),
+        connection.getContentEncoding(),
+        connection.getContentLength(),
+        connection.getLastModified(),
+        connection.getHeaderField("ETag"),
+        connection.getHeaderField("Cache-Control"),
+        connection.getExpiration(),
+        System.currentTimeMillis());
+  }
+
+  /**
+   * Apply the response to a conditional request for this entry. A
+   * "304 Not Modified" response need not repeat the content type, encoding
+   * or length, so those are kept, while the validators and freshness
+   * information are taken from the response where it has them.
+   *
+   * @param response the metadata of a "304 Not Modified" response.
+   *
+   * @return the metadata of the revalidated entry.
+   */
+  public CacheEntryMetadata revalidatedBy(CacheEntryMetadata response) {
+    return new CacheEntryMetadata(
+        url,
+        statusCode,
+        contentType,
+        contentEncoding,
+        contentLength,
+        (response.lastModified != 0) ? response.lastModified : lastModified,
+        (response.etag != null) ? response.etag : etag,
+        (response.cacheControl != null) ? response.cacheControl : cacheControl,
+        (response.expires != 0) ? response.expires : expires,
+        response.fetchedAt);
+  }
+
+  /**
+   * Describe the body of this entry as stored in some other encoding.
+   *
+   * @param contentEncoding the encoding in which the body is stored.
+   * @param contentLength the length of the body as stored.
+   *
+   * @return the metadata of the entry as stored.
+   */
+  public CacheEntryMetadata storedAs(String contentEncoding, long contentLength) {
+    return new CacheEntryMetadata(
+        url, statusCode, contentType, contentEncoding, contentLength,
+        lastModified, etag, cacheControl, expires, fetchedAt);
+  }
+
+  /**
+   * Decide whether the cached entry may be used without asking the server,
+   * following the Cache-Control max-age and no-cache directives, or failing
+   * those the Expires header.
+   *
+   * @param now the current time, in milliseconds since the epoch.
+   *
+   * @return whether the entry is fresh at the given time.
+   */
+  public boolean isFresh(long now) {
+    if (cacheControl != null) {
+      for (String directive : cacheControl.split(",")) {
+        directive = directive.trim().toLowerCase(Locale.ENGLISH);
+        if (directive.equals("no-cache") || directive.equals("no-store")) {
+          return false;
+        }
+        if (directive.startsWith("max-age=")) {
+          try {
+            long maxAge = Long.parseLong(directive.substring("max-age=".length()).trim());
+            return now < fetchedAt + maxAge * 1000;
+          } catch (NumberFormatException e) {
+            return false;
+          }
+        }
+      }
+    }
+    return now < expires;
+  }
+
+  /**
+   * Read metadata previously written by {@link #store(File)}.
+   *
+   * @param file a file.
+   *
+   * @return the metadata, or <code>null</code> if the file does not exist or
+   * cannot be read.
+   */
+  public static CacheEntryMetadata load(File file) {
+    if (!file.exists()) return null;
+
+    Properties properties = new Properties();
+    try {
+      InputStream is = new FileInputStream(file);
+      try {
+        properties.load(is);
+      } finally {
+        is.close();
+      }
+    } catch (IOException e) {
+      return null;
+    }
+
+    try {
+      return new CacheEntryMetadata(
+          properties.getProperty(URL),
+          Integer.parseInt(properties.getProperty(STATUS_CODE, "-1")),
+          properties.getProperty(CONTENT_TYPE),
+          properties.getProperty(CONTENT_ENCODING),
+          Long.parseLong(properties.getProperty(CONTENT_LENGTH, "-1")),
+          Long.parseLong(properties.getProperty(LAST_MODIFIED, "0")),
+          properties.getProperty(ETAG),
+          properties.getProperty(CACHE_CONTROL),
+          Long.parseLong(properties.getProperty(EXPIRES, "0")),
+          Long.parseLong(properties.getProperty(FETCHED_AT, "0")));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Write this metadata to a file.
+   *
+   * @param file a file.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  public void store(File file) throws IOException {
+    Properties properties = new Properties();
+    setProperty(properties, URL, url);
+    setProperty(properties, STATUS_CODE, Integer.toString(statusCode));
+    setProperty(properties, CONTENT_TYPE, contentType);
+    setProperty(properties, CONTENT_ENCODING, contentEncoding);
+    setProperty(properties, CONTENT_LENGTH, Long.toString(contentLength));
+    setProperty(properties, LAST_MODIFIED, Long.toString(lastModified));
+    setProperty(properties, ETAG, etag);
+    setProperty(properties, CACHE_CONTROL, cacheControl);
+    setProperty(properties, EXPIRES, Long.toString(expires));
+    setProperty(properties, FETCHED_AT, Long.toString(fetchedAt));
+
+    OutputStream os = new FileOutputStream(file);
+    try {
+      properties.store(os, null);
+    } finally {
+      os.close();
+    }
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return the HTTP status code of the response, or -1 if the resource was
+   * not retrieved over HTTP.
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * @return the Content-Encoding of the body as stored, or <code>null</code>
+   * if it is stored as is.
+   */
+  public String getContentEncoding() {
+    return contentEncoding;
+  }
+
+  /**
+   * @return the length of the body as stored, or -1 if it is not known.
+   */
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * @return the Last-Modified time of the resource, in milliseconds since
+   * the epoch, or 0 if it is not known.
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  public String getCacheControl() {
+    return cacheControl;
+  }
+
+  /**
+   * @return the Expires time of the resource, in milliseconds since the
+   * epoch, or 0 if it is not known.
+   */
+  public long getExpires() {
+    return expires;
+  }
+
+  /**
+   * @return the time at which the response was received, in milliseconds
+   * since the epoch.
+   */
+  public long getFetchedAt() {
+    return fetchedAt;
+  }
+
+  private static void setProperty(Properties properties, String key, String value) {
+    if (value != null) properties.setProperty(key, value);
+  }
+}
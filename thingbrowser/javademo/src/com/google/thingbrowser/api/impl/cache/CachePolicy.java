@@ -0,0 +1,75 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl.cache;
+
+import java.util.Locale;
+
+/**
+ * How a cached copy of a resource that is no longer fresh is used.
+ */
+public enum CachePolicy {
+
+  /**
+   * Revalidate the copy with the server before using it, waiting for the
+   * answer.
+   */
+  REVALIDATE,
+
+  /**
+   * Use the copy at once, and revalidate it in the background, telling the
+   * Things using it if it has changed.
+   */
+  STALE_WHILE_REVALIDATE,
+
+  /**
+   * Use the copy as is, and never touch the network. Resources not in the
+   * cache cannot be retrieved.
+   */
+  OFFLINE;
+
+  /**
+   * Parse a policy from its name in the form used in system properties,
+   * such as <code>stale-while-revalidate</code>.
+   *
+   * @param name the name of a policy.
+   * @param defaultPolicy the policy to return if the name is
+   * <code>null</code> or names no policy.
+   *
+   * @return the policy.
+   */
+  public static CachePolicy parse(String name, CachePolicy defaultPolicy) {
+    if (name == null) return defaultPolicy;
+    try {
+      return valueOf(name.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      return defaultPolicy;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The content encodings in which bodies are transferred and stored: the
+ * identity encoding, and <code>gzip</code> and <code>deflate</code>
+ * compression. Bodies are stored as they arrive, so a body the server sent
+ * compressed stays compressed on disk. A body sent as is is compressed as it
+ * is stored if its content type is one that compresses well; media that are
+ * already compressed, such as images and audio, are stored as is.
+ *
+ * <p>Compressing bodies as they are stored may be turned off with the system
+ * property <code>thingbrowser.cache.compress</code> (default true).
+ */
+public final class ContentEncoding {
+
+  /**
+   * The value of the Accept-Encoding header to send with requests.
+   */
+  public static final String ACCEPT = "gzip, deflate";
+
+  /**
+   * The encoding in which compressible bodies are stored.
+   */
+  public static final String GZIP = "gzip";
+
+  private static final boolean COMPRESS_STORAGE =
+      Boolean.valueOf(System.getProperty("thingbrowser.cache.compress", "true"));
+
+  // Compressing a body is worthwhile only if it saves at least this fraction
+  // of its size.
+  private static final double MIN_SAVING = 0.1;
+
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  private ContentEncoding() {}
+
+  /**
+   * @return whether an encoding leaves the body as is.
+   */
+  public static boolean isIdentity(String encoding) {
+    return encoding == null || encoding.length() == 0 || encoding.equalsIgnoreCase("identity");
+  }
+
+  /**
+   * @return whether we can decode bodies in an encoding.
+   */
+  public static boolean isSupported(String encoding) {
+    return isIdentity(encoding)
+        || encoding.equalsIgnoreCase("gzip")
+        || encoding.equalsIgnoreCase("x-gzip")
+        || encoding.equalsIgnoreCase("deflate");
+  }
+
+  /**
+   * Decide whether bodies of a content type are worth compressing: text,
+   * and formats built on it such as XML, JSON, scripts, playlists and
+   * protein structures.
+   *
+   * @param contentType a MIME type, possibly with parameters, or
+   * <code>null</code>.
+   *
+   * @return whether bodies of the type compress well.
+   */
+  public static boolean isCompressible(String contentType) {
+    if (contentType == null) return false;
+    String type = contentType.split(";", 2)[0].trim().toLowerCase(Locale.ENGLISH);
+    return type.startsWith("text/")
+        || type.endsWith("/xml") || type.endsWith("+xml")
+        || type.endsWith("/json") || type.endsWith("+json")
+        || type.endsWith("javascript")
+        || type.endsWith("mpegurl")
+        || type.equals("chemical/x-pdb");
+  }
+
+  /**
+   * Wrap a stream of a body in an encoding with one that decodes it as it is
+   * read.
+   *
+   * @param in a stream of the encoded body.
+   * @param encoding the encoding.
+   *
+   * @return a stream of the decoded body.
+   *
+   * @throws IOException if the encoding is not supported, or the stream
+   * cannot be read.
+   */
+  public static InputStream decode(InputStream in, String encoding) throws IOException {
+    if (isIdentity(encoding)) return in;
+    if (encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")) {
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+    if (encoding.equalsIgnoreCase("deflate")) {
+      // "deflate" should mean a zlib stream, but some servers send raw
+      // deflate data; a zlib stream starts with a header whose first two
+      // bytes are a multiple of 31.
+      PushbackInputStream pushback = new PushbackInputStream(in, 2);
+      int cmf = pushback.read();
+      int flg = pushback.read();
+      if (flg >= 0) pushback.unread(flg);
+      if (cmf >= 0) pushback.unread(cmf);
+      boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+      return new InflaterInputStream(pushback, new Inflater(!zlib), BUFFER_SIZE);
+    }
+    in.close();
+    throw new IOException("Unsupported content encoding " + encoding);
+  }
+
+  /**
+   * Compress a body for storage, if its content type calls for it and doing
+   * so saves enough space.
+   *
+   * @param metadata the metadata of the body.
+   * @param body the file holding the body.
+   * @param target the file into which to compress it.
+   *
+   * @return the metadata of the compressed body, or <code>null</code> if the
+   * body should be stored as is, in which case the target file does not
+   * exist.
+   *
+   * @throws IOException if the body cannot be read or the target written.
+   */
+  static CacheEntryMetadata compressForStorage(
+      CacheEntryMetadata metadata, File body, File target) throws IOException {
+    if (!COMPRESS_STORAGE
+        || !isIdentity(metadata.getContentEncoding())
+        || !isCompressible(metadata.getContentType())) {
+      return null;
+    }
+
+    boolean done = false;
+    try {
+      InputStream in = new FileInputStream(body);
+      OutputStream out;
+      try {
+        out = new GZIPOutputStream(new FileOutputStream(target), BUFFER_SIZE);
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+      copy(in, out);
+
+      long length = target.length();
+      if (length > body.length() * (1 - MIN_SAVING)) return null;
+      done = true;
+      return metadata.storedAs(GZIP, length);
+    } finally {
+      if (!done) target.delete();
+    }
+  }
+
+  /**
+   * Decode a body in an encoding from one file into another.
+   *
+   * @param source the file holding the encoded body.
+   * @param encoding the encoding.
+   * @param target the file into which to write the decoded body.
+   *
+   * @throws IOException if the encoding is not supported, the source cannot
+   * be read or the target written.
+   */
+  static void decode(File source, String encoding, File target) throws IOException {
+    InputStream in = decode(new FileInputStream(source), encoding);
+    OutputStream out;
+    try {
+      out = new FileOutputStream(target);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    copy(in, out);
+  }
+
+  /**
+   * Copy a stream into another, closing both.
+   */
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    try {
+      try {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+          out.write(buffer, 0, n);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,817 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.thingbrowser.api.ThingUrl;
+
+/**
+ * A directory of cached resources, bounded in total size and number of
+ * entries, from which the least recently used entries are evicted.
+ *
+ * <p>Each entry is identified by a key derived from its URL, and consists of
+ * a body file and a {@link CacheEntryMetadata} file. Reading and writing
+ * entries never waits for the bookkeeping: the size and last access time of
+ * each entry are kept in an index that is maintained, persisted and used for
+ * eviction on a single background thread. The index is read in the
+ * background too, so opening a cache takes constant time. Only if the index
+ * is missing or unreadable is the directory scanned to rebuild it.
+ *
+ * <p>An entry is fetched only by the owner of its {@link EntryLock}, which
+ * excludes both other threads and other processes sharing the directory, so
+ * that however many want an entry at once, it is fetched once. Files are
+ * written aside and renamed into place, so they are never seen half written.
+ * An entry may be read while its body is still being downloaded, through the
+ * {@link PartialEntry} for the download.
+ *
+ * <p>Bodies are stored in the encoding in which they were sent, or
+ * compressed if they compress well; see {@link ContentEncoding}.
+ *
+ * <p>Small entries read often are also held in a {@link MemoryCache}, which
+ * the cache keeps consistent with the files.
+ *
+ * <p>The default cache is in <code>~/.thingbrowser/cache</code>. Its quotas
+ * may be set with the system properties
+ * <code>thingbrowser.cache.maxBytes</code> (default 256 MB) and
+ * <code>thingbrowser.cache.maxEntries</code> (default 10000), and those of its
+ * memory tier with <code>thingbrowser.cache.memoryBytes</code> (default 16 MB)
+ * and <code>thingbrowser.cache.memoryMaxEntryBytes</code> (default 256 KB).
+ * How entries that are no longer fresh are used is set by its
+ * {@link CachePolicy}, initially from the system property
+ * <code>thingbrowser.cache.policy</code>: <code>revalidate</code>,
+ * <code>stale-while-revalidate</code> (the default) or <code>offline</code>.
+ */
+public final class DiskCache {
+
+  private static final int INDEX_MAGIC = 0x54424331;  // "TBC1"
+  private static final String INDEX_FILENAME = "index";
+  private static final String LOCK_FILENAME = "lock";
+  private static final String BODY_SUFFIX = ".body";
+  private static final String DECODED_SUFFIX = ".decoded";
+  private static final String METADATA_SUFFIX = ".headers";
+  private static final String PARTIAL_SUFFIX = ".partial";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final Pattern ENTRY_FILENAME =
+      Pattern.compile("[0-9a-f]{32}(\\" + BODY_SUFFIX + "|\\" + METADATA_SUFFIX + "|\\" + DECODED_SUFFIX + ")");
+  private static final Pattern PARTIAL_FILENAME =
+      Pattern.compile("[0-9a-f]{32}\\" + PARTIAL_SUFFIX);
+  // Files written aside for an entry: its metadata, compressed body or
+  // decoded body.
+  private static final Pattern TEMP_FILENAME =
+      Pattern.compile("([0-9a-f]{32}).*\\" + TEMP_SUFFIX);
+
+  // How long to wait after a change before persisting the index, so that a
+  // burst of changes is written once.
+  private static final long INDEX_SAVE_DELAY_SECONDS = 5;
+
+  // How often to try again for the lock on an entry held by another process.
+  private static final long LOCK_POLL_MILLIS = 50;
+
+  private static final DiskCache defaultCache = new DiskCache(
+      new File(System.getProperty("user.home") + File.separator + ".thingbrowser" + File.separator + "cache"),
+      Long.getLong("thingbrowser.cache.maxBytes", 256L * 1024 * 1024),
+      Integer.getInteger("thingbrowser.cache.maxEntries", 10000),
+      new MemoryCache(
+          Long.getLong("thingbrowser.cache.memoryBytes", 16L * 1024 * 1024),
+          Integer.getInteger("thingbrowser.cache.memoryMaxEntryBytes", 256 * 1024)));
+
+  private static final class IndexEntry {
+    public long size;
+    public long lastAccess;
+
+    public IndexEntry(long size, long lastAccess) {
+      this.size = size;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  private final File directory;
+  private final long maxBytes;
+  private final int maxEntries;
+  private final MemoryCache memory;
+  private volatile CachePolicy policy = CachePolicy.parse(
+      System.getProperty("thingbrowser.cache.policy"), CachePolicy.STALE_WHILE_REVALIDATE);
+
+  private final ConcurrentMap<String, PartialEntry> partials =
+      new ConcurrentHashMap<String, PartialEntry>();
+
+  // Entries are locked by locking a byte of this file per key. Since such
+  // locks exclude only other processes, the keys locked by our own threads
+  // are kept too. The channel is guarded by lockedKeys.
+  private FileChannel lockChannel;
+  private final Set<String> lockedKeys = new HashSet<String>();
+
+  // Counts changes to bodies, so that a decoded copy of a body that has
+  // since changed is not published. Guarded by decodeLock.
+  private final Object decodeLock = new Object();
+  private long bodyChanges = 0;
+
+  // The fields below are accessed only on the background thread.
+  private final Map<String, IndexEntry> index =
+      new LinkedHashMap<String, IndexEntry>(16, 0.75f, true);
+  private long totalBytes = 0;
+  private boolean saveScheduled = false;
+
+  private final ScheduledExecutorService executor =
+      new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "thingbrowser-cache");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
+  /**
+   * Open a cache in a directory, creating the directory if need be.
+   *
+   * @param directory the directory.
+   * @param maxBytes the maximum total size of the bodies of the entries.
+   * @param maxEntries the maximum number of entries.
+   * @param memory the tier in which to hold small entries read often.
+   */
+  public DiskCache(File directory, long maxBytes, int maxEntries, MemoryCache memory) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.maxEntries = maxEntries;
+    this.memory = memory;
+
+    if (!directory.exists()) {
+      directory.mkdirs();
+    }
+
+    try {
+      lockChannel = openLockChannel();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    executor.execute(new Runnable() {
+      public void run() {
+        if (!loadIndex()) rebuildIndex();
+        evict();
+      }
+    });
+
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      public void run() {
+        flush();
+      }
+    });
+  }
+
+  public static DiskCache getDefault() {
+    return defaultCache;
+  }
+
+  /**
+   * @return how entries that are no longer fresh are used.
+   */
+  public CachePolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Set how entries that are no longer fresh are used from now on, for
+   * example to work offline.
+   *
+   * @param policy the policy.
+   */
+  public void setPolicy(CachePolicy policy) {
+    this.policy = policy;
+  }
+
+  /**
+   * @return the tier holding small entries of this cache in memory.
+   */
+  public MemoryCache getMemoryCache() {
+    return memory;
+  }
+
+  /**
+   * @param url a URL.
+   *
+   * @return the key of the entry for the URL: the MD5 digest of its canonical
+   * form, as 32 lower case hexadecimal digits.
+   */
+  public static String keyFor(ThingUrl url) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new Error(e);  // We should always have MD5
+    }
+
+    byte[] result;
+    try {
+      result = digest.digest(url.getExternalForm().getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new Error(e);  // We should always have UTF-8
+    }
+
+    StringBuilder sb = new StringBuilder(result.length * 2);
+    for (byte b : result) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the file holding the body of an entry, which exists only if the
+   * entry does.
+   */
+  public File getBodyFile(String key) {
+    return new File(directory, key + BODY_SUFFIX);
+  }
+
+  /**
+   * Return a file holding the body of an entry decoded, decoding it the first
+   * time it is asked for. The decoded copy is shared by all who ask, counts
+   * against the quota of the cache, and goes when the body is replaced or
+   * the entry is evicted.
+   *
+   * @param key the key of the entry.
+   * @param metadata the metadata of the entry.
+   *
+   * @return the body file itself if it is not encoded, or a decoded copy.
+   *
+   * @throws IOException if the body cannot be read, or the copy written.
+   */
+  public File getDecodedFile(final String key, CacheEntryMetadata metadata) throws IOException {
+    File body = getBodyFile(key);
+    if (ContentEncoding.isIdentity(metadata.getContentEncoding())) return body;
+
+    File decoded = getDecodedFileOf(key);
+    while (true) {
+      long changes;
+      synchronized (decodeLock) {
+        if (decoded.exists()) return decoded;
+        changes = bodyChanges;
+      }
+
+      File temp = File.createTempFile(key, TEMP_SUFFIX, directory);
+      try {
+        ContentEncoding.decode(body, metadata.getContentEncoding(), temp);
+        synchronized (decodeLock) {
+          if (bodyChanges != changes) continue;
+          replace(temp, decoded);
+        }
+      } finally {
+        temp.delete();
+      }
+
+      final long size = body.length() + decoded.length();
+      executor.execute(new Runnable() {
+        public void run() {
+          if (!index.containsKey(key)) return;
+          record(key, size, System.currentTimeMillis());
+          evict();
+        }
+      });
+      return decoded;
+    }
+  }
+
+  /**
+   * Look up an entry, counting this as an access to it.
+   *
+   * @param key the key of the entry.
+   *
+   * @return the metadata of the entry, or <code>null</code> if there is no
+   * complete entry for the key.
+   */
+  public CacheEntryMetadata get(final String key) {
+    final File body = getBodyFile(key);
+    if (!body.exists()) return null;
+    CacheEntryMetadata metadata = CacheEntryMetadata.load(getMetadataFile(key));
+    if (metadata == null) return null;
+
+    final long now = System.currentTimeMillis();
+    executor.execute(new Runnable() {
+      public void run() {
+        IndexEntry entry = index.get(key);
+        if (entry == null) {
+          // An entry written before a crash lost the index update for it.
+          record(key, body.length(), now);
+        } else {
+          entry.lastAccess = now;
+          scheduleSave();
+        }
+      }
+    });
+
+    return metadata;
+  }
+
+  /**
+   * Record an entry whose body has been written to {@link #getBodyFile}, or
+   * whose metadata has changed, and evict other entries if the cache is now
+   * over quota. A copy of the body held in memory is kept, so bodies must be
+   * written through {@link #beginPartial}.
+   *
+   * @param key the key of the entry.
+   * @param metadata the metadata of the entry.
+   *
+   * @throws IOException if the metadata cannot be written.
+   */
+  public void put(final String key, CacheEntryMetadata metadata) throws IOException {
+    File metadataFile = getMetadataFile(key);
+    File temp = new File(directory, metadataFile.getName() + TEMP_SUFFIX);
+    metadata.store(temp);
+    replace(temp, metadataFile);
+    memory.revalidated(key, metadata);
+
+    final long size = getBodyFile(key).length() + getDecodedFileOf(key).length();
+    final long now = System.currentTimeMillis();
+    executor.execute(new Runnable() {
+      public void run() {
+        record(key, size, now);
+        evict();
+      }
+    });
+  }
+
+  /**
+   * Lock an entry if no other thread or process has locked it.
+   *
+   * @param key the key of the entry.
+   *
+   * @return the lock, or <code>null</code> if the entry is locked.
+   *
+   * @throws IOException if the lock file cannot be locked.
+   */
+  public EntryLock tryLock(String key) throws IOException {
+    synchronized (lockedKeys) {
+      if (lockedKeys.contains(key)) return null;
+      FileLock fileLock = tryFileLock(key);
+      if (fileLock == null) return null;
+      lockedKeys.add(key);
+      return new EntryLock(this, key, fileLock);
+    }
+  }
+
+  /**
+   * Lock an entry, waiting for any other thread or process that has locked
+   * it to release it. Since the owner of a lock that begins downloading the
+   * entry keeps it until the download completes, the wait stops early if a
+   * thread of this process begins downloading the entry, so that the caller
+   * can follow the download through {@link #getPartial(String)}.
+   *
+   * @param key the key of the entry.
+   *
+   * @return the lock, or <code>null</code> if a download of the entry began.
+   *
+   * @throws IOException if the lock file cannot be locked, or the wait is
+   * interrupted.
+   */
+  public EntryLock lock(String key) throws IOException {
+    synchronized (lockedKeys) {
+      while (lockedKeys.contains(key)) {
+        if (partials.containsKey(key)) return null;
+        try {
+          lockedKeys.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      lockedKeys.add(key);
+    }
+
+    // Now only another process can be holding the lock. We poll for it
+    // rather than wait in FileChannel.lock(), since interrupting a thread
+    // waiting there closes the channel, and with it every lock we hold.
+    boolean locked = false;
+    try {
+      while (true) {
+        FileLock fileLock;
+        synchronized (lockedKeys) {
+          fileLock = tryFileLock(key);
+        }
+        if (fileLock != null) {
+          EntryLock lock = new EntryLock(this, key, fileLock);
+          locked = true;
+          return lock;
+        }
+        try {
+          Thread.sleep(LOCK_POLL_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+    } finally {
+      if (!locked) unlocked(key);
+    }
+  }
+
+  /**
+   * Try to lock the byte of the lock file for a key, with the interrupt
+   * status of the current thread cleared so that it cannot close the
+   * channel, and reopening the channel if something else has closed it.
+   * Callers must hold the monitor of lockedKeys.
+   */
+  private FileLock tryFileLock(String key) throws IOException {
+    if (!lockChannel.isOpen()) {
+      lockChannel = openLockChannel();
+    }
+    boolean interrupted = Thread.interrupted();
+    try {
+      return lockChannel.tryLock(getLockPosition(key), 1, false);
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  private FileChannel openLockChannel() throws IOException {
+    return new RandomAccessFile(new File(directory, LOCK_FILENAME), "rw").getChannel();
+  }
+
+  void unlocked(String key) {
+    synchronized (lockedKeys) {
+      lockedKeys.remove(key);
+      lockedKeys.notifyAll();
+    }
+  }
+
+  /**
+   * Start downloading the body of an entry. The body is readable through the
+   * returned {@link PartialEntry} as it is written, and replaces any existing
+   * body of the entry, along with its metadata, once it is complete.
+   *
+   * @param lock the lock on the entry, which passes to the download.
+   * @param metadata the metadata of the response whose body is downloaded.
+   *
+   * @return the new download.
+   *
+   * @throws IOException if the partial file cannot be created.
+   */
+  public PartialEntry beginPartial(EntryLock lock, CacheEntryMetadata metadata)
+      throws IOException {
+    String key = lock.getKey();
+    PartialEntry partial = new PartialEntry(this, lock, metadata, getPartialFile(key));
+    partials.put(key, partial);
+
+    // Let threads waiting for the lock follow the download instead.
+    synchronized (lockedKeys) {
+      lockedKeys.notifyAll();
+    }
+
+    return partial;
+  }
+
+  /**
+   * @param key the key of an entry.
+   *
+   * @return the download of the body of the entry in progress, or
+   * <code>null</code> if there is none.
+   */
+  public PartialEntry getPartial(String key) {
+    return partials.get(key);
+  }
+
+  /**
+   * Compress a downloaded body into a file beside it, if it is worth
+   * storing compressed.
+   *
+   * @return the metadata of the compressed body, or <code>null</code> if the
+   * body should be stored as is.
+   */
+  CacheEntryMetadata compressPartial(String key, CacheEntryMetadata metadata, File partialFile)
+      throws IOException {
+    return ContentEncoding.compressForStorage(metadata, partialFile, getCompressedFile(key));
+  }
+
+  /**
+   * Make a downloaded body, or its compressed form if there is one, the body
+   * of an entry.
+   *
+   * @return the metadata of the entry.
+   */
+  CacheEntryMetadata commitPartial(String key, CacheEntryMetadata metadata, File partialFile,
+      CacheEntryMetadata compressed) throws IOException {
+    File body = getBodyFile(key);
+    synchronized (decodeLock) {
+      bodyChanges++;
+      if (compressed != null) {
+        replace(getCompressedFile(key), body);
+        partialFile.delete();
+        metadata = compressed;
+      } else {
+        replace(partialFile, body);
+      }
+      getDecodedFileOf(key).delete();
+    }
+    memory.invalidate(key);
+    put(key, metadata);
+    return metadata;
+  }
+
+  void endPartial(String key, PartialEntry partial) {
+    partials.remove(key, partial);
+  }
+
+  /**
+   * Remove an entry.
+   *
+   * @param key the key of the entry.
+   */
+  public void remove(final String key) {
+    memory.invalidate(key);
+    executor.execute(new Runnable() {
+      public void run() {
+        IndexEntry entry = index.remove(key);
+        if (entry != null) totalBytes -= entry.size;
+        deleteEntryFiles(key);
+        scheduleSave();
+      }
+    });
+  }
+
+  /**
+   * Persist the index now, waiting for pending bookkeeping to finish.
+   */
+  public void flush() {
+    try {
+      executor.submit(new Runnable() {
+        public void run() {
+          saveIndex();
+        }
+      }).get(10, TimeUnit.SECONDS);
+    } catch (Exception e) {
+      // The index is only an optimization; if we cannot save it, it will be
+      // rebuilt next time.
+      e.printStackTrace(System.err);
+    }
+  }
+
+  private File getMetadataFile(String key) {
+    return new File(directory, key + METADATA_SUFFIX);
+  }
+
+  private File getPartialFile(String key) {
+    return new File(directory, key + PARTIAL_SUFFIX);
+  }
+
+  private File getDecodedFileOf(String key) {
+    return new File(directory, key + DECODED_SUFFIX);
+  }
+
+  private File getCompressedFile(String key) {
+    return new File(directory, key + BODY_SUFFIX + TEMP_SUFFIX);
+  }
+
+  private static long getLockPosition(String key) {
+    // The first 60 bits of the key, which is as unique as we need and keeps
+    // the locked byte within the range of a long.
+    return Long.parseLong(key.substring(0, 15), 16);
+  }
+
+  /**
+   * Rename a file over another, atomically where the platform allows.
+   */
+  private static void replace(File source, File target) throws IOException {
+    if (source.renameTo(target)) return;
+    // Some platforms cannot rename over an existing file.
+    target.delete();
+    if (!source.renameTo(target)) {
+      throw new IOException("Cannot rename " + source + " to " + target);
+    }
+  }
+
+  private void record(String key, long size, long lastAccess) {
+    IndexEntry entry = index.get(key);
+    if (entry == null) {
+      index.put(key, new IndexEntry(size, lastAccess));
+    } else {
+      totalBytes -= entry.size;
+      entry.size = size;
+      entry.lastAccess = lastAccess;
+    }
+    totalBytes += size;
+    scheduleSave();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, IndexEntry>> i = index.entrySet().iterator();
+    while ((totalBytes > maxBytes || index.size() > maxEntries) && i.hasNext()) {
+      Map.Entry<String, IndexEntry> eldest = i.next();
+      // Skip entries being fetched, in this process or another, whose files
+      // are about to be replaced; they are evicted once they are old again.
+      EntryLock lock;
+      try {
+        lock = tryLock(eldest.getKey());
+      } catch (IOException e) {
+        e.printStackTrace(System.err);
+        continue;
+      }
+      if (lock == null) continue;
+      try {
+        i.remove();
+        totalBytes -= eldest.getValue().size;
+        deleteEntryFiles(eldest.getKey());
+        scheduleSave();
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  private void deleteEntryFiles(String key) {
+    memory.invalidate(key);
+    getMetadataFile(key).delete();
+    synchronized (decodeLock) {
+      bodyChanges++;
+      getBodyFile(key).delete();
+      getDecodedFileOf(key).delete();
+    }
+  }
+
+  private void scheduleSave() {
+    if (saveScheduled) return;
+    saveScheduled = true;
+    executor.schedule(new Runnable() {
+      public void run() {
+        saveIndex();
+      }
+    }, INDEX_SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private boolean loadIndex() {
+    File file = new File(directory, INDEX_FILENAME);
+    if (!file.exists()) return false;
+
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != INDEX_MAGIC) return false;
+        int count = in.readInt();
+        // Entries are stored least recently used first, so inserting them
+        // in order restores the eviction order.
+        for (int i = 0; i < count; i++) {
+          String key = in.readUTF();
+          long size = in.readLong();
+          long lastAccess = in.readLong();
+          index.put(key, new IndexEntry(size, lastAccess));
+          totalBytes += size;
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      index.clear();
+      totalBytes = 0;
+      return false;
+    }
+
+    return true;
+  }
+
+  private void rebuildIndex() {
+    index.clear();
+    totalBytes = 0;
+
+    File[] files = directory.listFiles();
+    if (files == null) return;
+
+    // Order by modification time, as the best guess at recency of use.
+    Arrays.sort(files, new Comparator<File>() {
+      public int compare(File a, File b) {
+        long d = a.lastModified() - b.lastModified();
+        return (d < 0) ? -1 : (d > 0) ? 1 : 0;
+      }
+    });
+
+    for (File file : files) {
+      String name = file.getName();
+      if (name.equals(INDEX_FILENAME) || name.equals(LOCK_FILENAME)) continue;
+      // Another process may be saving the index; the next save replaces it.
+      if (name.equals(INDEX_FILENAME + TEMP_SUFFIX)) continue;
+      Matcher temp = TEMP_FILENAME.matcher(name);
+      if (PARTIAL_FILENAME.matcher(name).matches()) {
+        // Left over from an interrupted download, unless a download is in
+        // progress in this or another process.
+        deleteUnlessLocked(file, name.substring(0, name.length() - PARTIAL_SUFFIX.length()));
+      } else if (temp.matches()) {
+        // Likewise left over, unless the entry is being fetched.
+        deleteUnlessLocked(file, temp.group(1));
+      } else if (!ENTRY_FILENAME.matcher(name).matches()) {
+        // Left over from an earlier cache layout.
+        file.delete();
+      } else if (name.endsWith(BODY_SUFFIX)) {
+        String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+        long size = file.length() + getDecodedFileOf(key).length();
+        index.put(key, new IndexEntry(size, file.lastModified()));
+        totalBytes += size;
+      } else if (name.endsWith(DECODED_SUFFIX)) {
+        String key = name.substring(0, name.length() - DECODED_SUFFIX.length());
+        if (!getBodyFile(key).exists()) file.delete();
+      }
+    }
+
+    scheduleSave();
+  }
+
+  /**
+   * Delete a file belonging to an entry, unless the entry is locked by a
+   * thread or process that may still be writing it.
+   */
+  private void deleteUnlessLocked(File file, String key) {
+    try {
+      EntryLock lock = tryLock(key);
+      if (lock != null) {
+        try {
+          file.delete();
+        } finally {
+          lock.release();
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace(System.err);
+    }
+  }
+
+  private void saveIndex() {
+    saveScheduled = false;
+
+    File file = new File(directory, INDEX_FILENAME);
+    File temp = new File(directory, INDEX_FILENAME + TEMP_SUFFIX);
+
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(index.size());
+        for (Map.Entry<String, IndexEntry> e : index.entrySet()) {
+          out.writeUTF(e.getKey());
+          out.writeLong(e.getValue().size);
+          out.writeLong(e.getValue().lastAccess);
+        }
+      } finally {
+        out.close();
+      }
+      // Write the whole index aside first, so that a crash leaves either a
+      // complete index or none, in which case it is rebuilt.
+      replace(temp, file);
+    } catch (IOException e) {
+      e.printStackTrace(System.err);
+    }
+  }
+}
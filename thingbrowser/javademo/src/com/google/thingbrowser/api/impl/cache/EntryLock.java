@@ -0,0 +1,74 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl.cache;
+
+import java.io.IOException;
+import java.nio.channels.FileLock;
+
+/**
+ * Exclusive ownership of an entry of a {@link DiskCache}, among the threads
+ * of this process and any other processes sharing the cache directory. The
+ * owner of the lock is the only one who may fetch the entry.
+ *
+ * <p>Obtain an <code>EntryLock</code> from {@link DiskCache#tryLock(String)}
+ * or {@link DiskCache#lock(String)}.
+ */
+public final class EntryLock {
+
+  private final DiskCache cache;
+  private final String key;
+  private final FileLock fileLock;
+
+  EntryLock(DiskCache cache, String key, FileLock fileLock) {
+    this.cache = cache;
+    this.key = key;
+    this.fileLock = fileLock;
+  }
+
+  /**
+   * @return the key of the locked entry.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Release the lock, letting the next waiting thread or process have it.
+   */
+  public void release() {
+    try {
+      fileLock.release();
+    } catch (IOException e) {
+      // The lock goes when the channel is closed, or the process exits.
+      e.printStackTrace(System.err);
+    }
+    cache.unlocked(key);
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl.cache;
+
+/**
+ * An approximate count of how often each of a stream of keys has been seen
+ * lately, for deciding which keys are worth caching. This is a count-min
+ * sketch of four-bit counters: each key increments one counter in each of
+ * four rows, and its count is the least of them, which over-estimates it
+ * only by the keys that collide with it in every row. Once as many keys have
+ * been counted as ten times the width of the sketch, all counters are
+ * halved, so that the counts follow what is popular now rather than what was
+ * popular once.
+ *
+ * <p>This class is not thread-safe.
+ */
+final class FrequencySketch {
+
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final int[] SEEDS = {
+      0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+
+  // Each long holds sixteen counters; each row is a quarter of the table.
+  private final long[] table;
+  private final int rowMask;
+  private final int sampleSize;
+  private int additions = 0;
+
+  /**
+   * @param expectedKeys roughly how many distinct keys are worth counting at
+   * once.
+   */
+  public FrequencySketch(int expectedKeys) {
+    int counters = Integer.highestOneBit(Math.max(64, expectedKeys) - 1) << 1;
+    table = new long[counters * DEPTH / 16];
+    rowMask = counters - 1;
+    sampleSize = 10 * counters;
+  }
+
+  /**
+   * @return the estimated number of recent occurrences of a key, at most 15.
+   */
+  public int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int min = MAX_COUNT;
+    for (int row = 0; row < DEPTH; row++) {
+      min = Math.min(min, get(index(hash, row)));
+    }
+    return min;
+  }
+
+  /**
+   * Count an occurrence of a key.
+   */
+  public void increment(Object key) {
+    int hash = spread(key.hashCode());
+    int[] indexes = new int[DEPTH];
+    int min = MAX_COUNT;
+    for (int row = 0; row < DEPTH; row++) {
+      indexes[row] = index(hash, row);
+      min = Math.min(min, get(indexes[row]));
+    }
+    if (min == MAX_COUNT) return;
+
+    // Increment only the counters at the minimum, which keeps the counts of
+    // other keys sharing the rest from creeping up.
+    for (int index : indexes) {
+      if (get(index) == min) table[index >>> 4] += 1L << ((index & 15) << 2);
+    }
+
+    if (++additions == sampleSize) {
+      for (int i = 0; i < table.length; i++) {
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions /= 2;
+    }
+  }
+
+  private int get(int index) {
+    return (int)((table[index >>> 4] >>> ((index & 15) << 2)) & 0xf);
+  }
+
+  private int index(int hash, int row) {
+    int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+    h ^= h >>> 16;
+    return row * (rowMask + 1) + (h & rowMask);
+  }
+
+  private static int spread(int h) {
+    h ^= h >>> 16;
+    h *= 0x45d9f3b;
+    h ^= h >>> 16;
+    return h;
+  }
+}
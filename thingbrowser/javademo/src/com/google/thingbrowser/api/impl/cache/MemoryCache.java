@@ -0,0 +1,235 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.thingbrowser.api.metrics.Metrics;
+
+/**
+ * The small, frequently read entries of a {@link DiskCache}, held on the heap
+ * so that reading them again costs no file operations at all.
+ *
+ * <p>The tier is bounded in total size, and holds only entries up to a
+ * maximum size. Entries are evicted least recently used first, but only to
+ * make room for an entry that has been read more often lately than all of
+ * the entries it would displace together, as counted by a
+ * {@link FrequencySketch}. So a burst of entries read once does not flush
+ * out those read over and over, and one large entry does not displace many
+ * small ones unless it is in more demand than all of them.
+ *
+ * <p>The tier is kept consistent with the disk by its {@link DiskCache}, which
+ * drops an entry here whenever its body on disk is replaced or removed, and
+ * updates its metadata here when it is revalidated.
+ */
+public final class MemoryCache {
+
+  /**
+   * An entry held in memory: its metadata and the whole of its body, in the
+   * encoding given by the metadata.
+   */
+  public static final class Entry {
+    private final CacheEntryMetadata metadata;
+    private final byte[] body;
+
+    private Entry(CacheEntryMetadata metadata, byte[] body) {
+      this.metadata = metadata;
+      this.body = body;
+    }
+
+    public CacheEntryMetadata getMetadata() {
+      return metadata;
+    }
+
+    /**
+     * @return the body, which callers must not modify.
+     */
+    public byte[] getBody() {
+      return body;
+    }
+  }
+
+  private final long maxBytes;
+  private final int maxEntryBytes;
+  private final Map<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private final FrequencySketch sketch;
+  private long totalBytes = 0;
+  // Counts invalidations, so that a body read from a file that has since
+  // been replaced is not admitted.
+  private long invalidations = 0;
+
+  /**
+   * @param maxBytes the maximum total size of the bodies held.
+   * @param maxEntryBytes the size of the largest body that may be held.
+   */
+  public MemoryCache(long maxBytes, int maxEntryBytes) {
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = maxEntryBytes;
+    // Enough counters for several times as many entries as fit, assuming
+    // they are of typical size, so that we remember what we turned away.
+    this.sketch = new FrequencySketch((int)Math.min(1 << 20, maxBytes / 4096 * 4));
+  }
+
+  /**
+   * Look up an entry, without counting this as a read of it.
+   *
+   * @param key the key of the entry.
+   *
+   * @return the entry, or <code>null</code> if it is not held in memory.
+   */
+  public synchronized Entry get(String key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Read an entry, taking it from memory if it is held there. Otherwise, if
+   * the entry is small and in enough demand, read its body from the disk
+   * into memory.
+   *
+   * @param key the key of the entry.
+   * @param metadata the metadata of the entry.
+   * @param file the file holding the body of the entry.
+   *
+   * @return the entry, or <code>null</code> if it is not held in memory and
+   * its body should be read from the file.
+   */
+  public Entry read(String key, CacheEntryMetadata metadata, File file) {
+    long length;
+    long seen;
+    synchronized (this) {
+      sketch.increment(key);
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        Metrics.count("MemoryCacheHit", MemoryCache.class, 1);
+        return entry;
+      }
+
+      length = metadata.getContentLength();
+      if (length > maxEntryBytes) return null;
+      if (length < 0) length = file.length();
+      if (length > maxEntryBytes || !admits(key, length)) return null;
+      seen = invalidations;
+    }
+
+    byte[] body;
+    try {
+      body = readFully(file, (int)length);
+    } catch (IOException e) {
+      // The entry is being replaced; it will be offered again.
+      return null;
+    }
+    if (body == null) return null;
+
+    Entry entry = new Entry(metadata, body);
+    synchronized (this) {
+      if (invalidations != seen || entries.containsKey(key) || !admits(key, body.length)) {
+        return entry;
+      }
+      makeRoom(body.length);
+      entries.put(key, entry);
+      totalBytes += body.length;
+      Metrics.count("MemoryCacheAdmit", MemoryCache.class, 1);
+    }
+    return entry;
+  }
+
+  /**
+   * Drop an entry, since its body has changed.
+   */
+  synchronized void invalidate(String key) {
+    invalidations++;
+    Entry entry = entries.remove(key);
+    if (entry != null) totalBytes -= entry.body.length;
+  }
+
+  /**
+   * Replace the metadata of an entry whose body has been revalidated.
+   */
+  synchronized void revalidated(String key, CacheEntryMetadata metadata) {
+    Entry entry = entries.get(key);
+    if (entry != null) entries.put(key, new Entry(metadata, entry.body));
+  }
+
+  /**
+   * Decide whether to admit an entry: if it fits, or if it has been read
+   * more often than the least recently used entries it would displace.
+   */
+  private boolean admits(String key, long length) {
+    if (length > maxBytes) return false;
+    long needed = totalBytes + length - maxBytes;
+    if (needed <= 0) return true;
+
+    int candidate = sketch.frequency(key);
+    int victims = 0;
+    for (Map.Entry<String, Entry> eldest : entries.entrySet()) {
+      victims += sketch.frequency(eldest.getKey());
+      if (victims >= candidate) return false;
+      needed -= eldest.getValue().body.length;
+      if (needed <= 0) return true;
+    }
+    return false;
+  }
+
+  private void makeRoom(long length) {
+    Iterator<Entry> i = entries.values().iterator();
+    while (totalBytes + length > maxBytes && i.hasNext()) {
+      totalBytes -= i.next().body.length;
+      i.remove();
+    }
+  }
+
+  /**
+   * @return the contents of a file of a given length, or <code>null</code> if
+   * the file turns out to be of some other length.
+   */
+  private static byte[] readFully(File file, int length) throws IOException {
+    byte[] body = new byte[length];
+    InputStream is = new FileInputStream(file);
+    try {
+      int offset = 0;
+      while (offset < length) {
+        int n = is.read(body, offset, length - offset);
+        if (n < 0) return null;
+        offset += n;
+      }
+      if (is.read() >= 0) return null;
+    } finally {
+      is.close();
+    }
+    return body;
+  }
+}
@@ -0,0 +1,309 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A cache entry whose body is still being downloaded. The body is written to
+ * a partial file beside the entries of its {@link DiskCache}, and any number
+ * of readers may follow it as it is written, each blocking only when it has
+ * caught up with the download. Once the download completes, the partial file
+ * becomes the body of an ordinary entry.
+ *
+ * <p>The body may be downloaded in several pieces at once: the downloader
+ * writes each piece at its position, and tells the entry with
+ * {@link #advance(long)} how far from the start the body is contiguous.
+ * Readers read only that far.
+ *
+ * <p>The body is written as it arrives, in the encoding in which it was sent,
+ * and may be compressed as it becomes the body of the entry; see
+ * {@link ContentEncoding}. Readers always read it decoded.
+ *
+ * <p>Obtain a <code>PartialEntry</code> from
+ * {@link DiskCache#beginPartial(EntryLock, CacheEntryMetadata)}. It keeps the
+ * lock on the entry until the download completes or fails.
+ */
+public final class PartialEntry {
+
+  private final DiskCache cache;
+  private final EntryLock lock;
+  private final String key;
+  private final RandomAccessFile out;
+  private final FileChannel channel;
+
+  // Guarded by this.
+  private CacheEntryMetadata metadata;
+  private File file;
+  private long length = 0;
+  private boolean complete = false;
+  private boolean committed = false;
+  private IOException failure = null;
+
+  PartialEntry(DiskCache cache, EntryLock lock, CacheEntryMetadata metadata, File file)
+      throws IOException {
+    this.cache = cache;
+    this.lock = lock;
+    this.key = lock.getKey();
+    this.metadata = metadata;
+    this.file = file;
+    this.out = new RandomAccessFile(file, "rw");
+    this.channel = out.getChannel();
+
+    // Discard anything left by an earlier, interrupted download.
+    out.setLength(0);
+  }
+
+  /**
+   * @return the metadata of the response whose body is being downloaded,
+   * or once the download is complete, of the entry it became.
+   */
+  public synchronized CacheEntryMetadata getMetadata() {
+    return metadata;
+  }
+
+  /**
+   * Set the size of the partial file to that of the whole body, so that it
+   * is allocated once rather than growing with every write. Only the threads
+   * downloading the body may call this.
+   */
+  public void allocate(long size) throws IOException {
+    out.setLength(size);
+  }
+
+  /**
+   * Write bytes of the body at a position. Readers do not see them until
+   * {@link #advance(long)} is called. Only the threads downloading the body
+   * may call this, and they may do so concurrently.
+   */
+  public void write(long position, byte[] b, int off, int len) throws IOException {
+    ByteBuffer src = ByteBuffer.wrap(b, off, len);
+    while (src.hasRemaining()) {
+      channel.write(src, position + (src.position() - off));
+    }
+  }
+
+  /**
+   * Make the body available to readers up to a length, which must all have
+   * been written. Only the threads downloading the body may call this.
+   */
+  public synchronized void advance(long length) {
+    if (length > this.length) {
+      this.length = length;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Mark the body as complete, and make it the body of an ordinary entry
+   * in the cache. Only the thread downloading the body may call this.
+   */
+  public void complete() throws IOException {
+    out.close();
+
+    synchronized (this) {
+      complete = true;
+      notifyAll();
+    }
+
+    // Compressing the body may take a while, during which readers can read
+    // all of it from the partial file.
+    CacheEntryMetadata stored = null;
+    try {
+      stored = cache.compressPartial(key, metadata, file);
+    } catch (IOException e) {
+      // Store it as is.
+      e.printStackTrace(System.err);
+    }
+
+    synchronized (this) {
+      // Readers that have the partial file open keep reading it after it is
+      // renamed or deleted; new readers open the body instead.
+      try {
+        metadata = cache.commitPartial(key, metadata, file, stored);
+        file = cache.getBodyFile(key);
+      } catch (IOException e) {
+        // The body is still complete in the partial file, so our readers are
+        // unaffected; it is just not cached.
+        e.printStackTrace(System.err);
+      } finally {
+        committed = true;
+        notifyAll();
+        cache.endPartial(key, this);
+        lock.release();
+      }
+    }
+  }
+
+  /**
+   * Abandon the download, failing readers that have not yet read the whole
+   * body. Only the thread downloading the body may call this. Once the body
+   * has been committed, or the download has already been abandoned, this
+   * does nothing.
+   *
+   * @param cause the reason the download failed.
+   */
+  public void fail(IOException cause) {
+    try {
+      out.close();
+    } catch (IOException e) {
+      // We are discarding the file anyway
+    }
+
+    synchronized (this) {
+      if (committed || failure != null) return;
+      failure = cause;
+      notifyAll();
+      file.delete();
+      cache.endPartial(key, this);
+      lock.release();
+    }
+  }
+
+  /**
+   * @return whether the download was abandoned.
+   */
+  public synchronized boolean hasFailed() {
+    return failure != null;
+  }
+
+  /**
+   * @return the file holding the body, in the encoding given by
+   * {@link #getMetadata()}, which is complete only once the download is.
+   */
+  public synchronized File getFile() {
+    return file;
+  }
+
+  /**
+   * Wait for the download to complete, and the body to become that of an
+   * entry in the cache.
+   *
+   * @throws IOException if the download failed, or the wait was interrupted.
+   */
+  public synchronized void awaitComplete() throws IOException {
+    while (!committed) {
+      checkFailure();
+      waitForProgress();
+    }
+  }
+
+  /**
+   * Create and return a stream from which the body may be read, decoded,
+   * from the start, including any part of it not yet downloaded.
+   *
+   * @return a stream, which the client should <code>close()</code> when done.
+   */
+  public InputStream newInputStream() throws IOException {
+    InputStream in;
+    String encoding;
+    synchronized (this) {
+      checkFailure();
+      in = complete ?
+          new FileInputStream(file) :
+          new FollowingInputStream(new RandomAccessFile(file, "r"));
+      encoding = metadata.getContentEncoding();
+    }
+    // Decoding reads the header of a compressed body, so we must not hold
+    // our lock while it waits for it to arrive.
+    return ContentEncoding.decode(in, encoding);
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      IOException e = new IOException("Download of " + key + " failed");
+      e.initCause(failure);
+      throw e;
+    }
+  }
+
+  private void waitForProgress() throws IOException {
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /**
+   * Wait until the body extends beyond a position, or is complete.
+   *
+   * @return the number of bytes of the body available.
+   */
+  private synchronized long awaitLength(long position) throws IOException {
+    while (length <= position && !complete) {
+      checkFailure();
+      waitForProgress();
+    }
+    return length;
+  }
+
+  private class FollowingInputStream extends InputStream {
+
+    private final RandomAccessFile in;
+    private long position = 0;
+
+    public FollowingInputStream(RandomAccessFile in) {
+      this.in = in;
+    }
+
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      long available = awaitLength(position) - position;
+      if (available <= 0) return -1;
+      int n = in.read(b, off, (int)Math.min(len, available));
+      if (n > 0) position += n;
+      return n;
+    }
+
+    public int available() throws IOException {
+      synchronized (PartialEntry.this) {
+        return (int)Math.min(Integer.MAX_VALUE, length - position);
+      }
+    }
+
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
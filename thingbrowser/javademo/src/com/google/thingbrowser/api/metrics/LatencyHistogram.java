@@ -0,0 +1,142 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with a fixed relative precision, in the manner of
+ * HdrHistogram. Latencies are recorded in microseconds. Each power of two is
+ * split into {@link #SUB_BUCKETS} linear buckets, so any recorded latency is
+ * reported to within about 3% of its true value, whatever its magnitude.
+ *
+ * <p>Recording is lock free and allocates nothing. Reads are not atomic with
+ * respect to concurrent recording, which is fine for monitoring. Obtain
+ * instances from {@link Metrics#getHistogram(String, Object)}.
+ */
+public final class LatencyHistogram implements LatencyHistogramMBean {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Enough buckets for any non-negative long.
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  LatencyHistogram() {}
+
+  /**
+   * Record one latency.
+   *
+   * @param nanos the latency in nanoseconds.
+   */
+  public void record(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    counts.incrementAndGet(bucketOf(micros));
+    count.incrementAndGet();
+    totalMicros.addAndGet(micros);
+    for (long max; micros > (max = maxMicros.get()); ) {
+      if (maxMicros.compareAndSet(max, micros)) break;
+    }
+  }
+
+  /**
+   * @param fraction a fraction between 0 and 1.
+   *
+   * @return an upper bound on the latency, in microseconds, below which the
+   * given fraction of recorded latencies fall, or 0 if nothing was recorded.
+   */
+  public long getPercentileMicros(double fraction) {
+    long total = count.get();
+    if (total == 0) return 0;
+    long rank = Math.max(1, (long)Math.ceil(fraction * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) return Math.min(highestValueIn(i), maxMicros.get());
+    }
+    return maxMicros.get();
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMeanMillis() {
+    long total = count.get();
+    return (total == 0) ? 0 : totalMicros.get() / (total * 1000.0);
+  }
+
+  public double getMaxMillis() {
+    return maxMicros.get() / 1000.0;
+  }
+
+  public double getMedianMillis() {
+    return getPercentileMicros(0.5) / 1000.0;
+  }
+
+  public double get90thPercentileMillis() {
+    return getPercentileMicros(0.9) / 1000.0;
+  }
+
+  public double get99thPercentileMillis() {
+    return getPercentileMicros(0.99) / 1000.0;
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    totalMicros.set(0);
+    maxMicros.set(0);
+  }
+
+  // Values below SUB_BUCKETS have a bucket each. Above that, a value whose
+  // highest bit is bit (SUB_BUCKET_BITS + shift) lands in one of the
+  // SUB_BUCKETS buckets for that shift, chosen by its next highest bits.
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) return (int)value;
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKETS + (int)(value >>> shift);
+  }
+
+  private static long highestValueIn(int bucket) {
+    if (bucket < SUB_BUCKETS) return bucket;
+    int shift = bucket / SUB_BUCKETS - 1;
+    long top = bucket % SUB_BUCKETS + SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+}
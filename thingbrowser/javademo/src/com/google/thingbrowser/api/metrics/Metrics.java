@@ -0,0 +1,194 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and latency histograms for the browser, exported as MBeans named
+ * <code>com.google.thingbrowser:type=&lt;type&gt;,name=&lt;key&gt;</code>
+ * on the platform MBean server.
+ *
+ * <p>Metrics are off unless the system property
+ * <code>thingbrowser.metrics</code> is <code>true</code>, or they are switched
+ * on through the <code>com.google.thingbrowser:type=Metrics</code> MBean.
+ * While off, instrumented code pays only for reading a volatile flag. Timing
+ * a piece of code looks like this:
+ *
+ * <pre>
+ *   long startTime = Metrics.startTimer();
+ *   try {
+ *     ...
+ *   } finally {
+ *     Metrics.stopTimer(startTime, "Resolver", rootUrl);
+ *   }
+ * </pre>
+ */
+public final class Metrics {
+
+  public static final String DOMAIN = "com.google.thingbrowser";
+
+  /**
+   * The value returned by {@link #startTimer()} when metrics are off.
+   */
+  public static final long NOT_TIMING = Long.MIN_VALUE;
+
+  private static volatile boolean enabled = Boolean.getBoolean("thingbrowser.metrics");
+
+  private static final ConcurrentMap<String, Counter> counterByName =
+      new ConcurrentHashMap<String, Counter>();
+  private static final ConcurrentMap<String, LatencyHistogram> histogramByName =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+
+  static {
+    try {
+      register("type=Metrics",
+          new StandardMBean(new MetricsControl(), MetricsControlMBean.class));
+    } catch (JMException e) {
+      throw new Error(e);  // MetricsControl always implements its interface
+    }
+  }
+
+  private Metrics() {}
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void setEnabled(boolean enabled) {
+    Metrics.enabled = enabled;
+  }
+
+  /**
+   * @return the current time, to be passed to
+   * {@link #stopTimer(long, String, Object)}, or {@link #NOT_TIMING} if
+   * metrics are off.
+   */
+  public static long startTimer() {
+    return enabled ? System.nanoTime() : NOT_TIMING;
+  }
+
+  /**
+   * Record the time elapsed since a call to {@link #startTimer()}. This does
+   * nothing if metrics were off when the timer was started.
+   *
+   * @param startTime the value returned by {@link #startTimer()}.
+   * @param type the type of operation timed, such as "Resolver".
+   * @param key the instance of the operation timed, such as a resolver root
+   * URL. Classes are named by their class name, and <code>null</code> by
+   * "default".
+   */
+  public static void stopTimer(long startTime, String type, Object key) {
+    if (startTime == NOT_TIMING) return;
+    getHistogram(type, key).record(System.nanoTime() - startTime);
+  }
+
+  /**
+   * Add to a counter, if metrics are on.
+   *
+   * @param type the type of event counted.
+   * @param key the instance of the event counted, as for
+   * {@link #stopTimer(long, String, Object)}.
+   * @param delta the amount to add.
+   */
+  public static void count(String type, Object key, long delta) {
+    if (!enabled) return;
+    getCounter(type, key).add(delta);
+  }
+
+  public static Counter getCounter(String type, Object key) {
+    String name = objectName(type, key);
+    Counter counter = counterByName.get(name);
+    if (counter == null) {
+      Counter newCounter = new Counter();
+      counter = counterByName.putIfAbsent(name, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+        register(name, counter);
+      }
+    }
+    return counter;
+  }
+
+  public static LatencyHistogram getHistogram(String type, Object key) {
+    String name = objectName(type, key);
+    LatencyHistogram histogram = histogramByName.get(name);
+    if (histogram == null) {
+      LatencyHistogram newHistogram = new LatencyHistogram();
+      histogram = histogramByName.putIfAbsent(name, newHistogram);
+      if (histogram == null) {
+        histogram = newHistogram;
+        register(name, histogram);
+      }
+    }
+    return histogram;
+  }
+
+  private static String objectName(String type, Object key) {
+    String keyName;
+    if (key == null) {
+      keyName = "default";
+    } else if (key instanceof Class) {
+      keyName = ((Class<?>)key).getName();
+    } else if (key instanceof URL) {
+      keyName = ((URL)key).toExternalForm();
+    } else {
+      keyName = key.toString();
+    }
+    return "type=" + type + ",name=" + ObjectName.quote(keyName);
+  }
+
+  private static void register(String name, Object mbean) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+          mbean, new ObjectName(DOMAIN + ":" + name));
+    } catch (JMException e) {
+      // The metric still works; it just cannot be seen over JMX.
+      e.printStackTrace(System.err);
+    }
+  }
+
+  private static final class MetricsControl implements MetricsControlMBean {
+    public boolean isEnabled() {
+      return Metrics.isEnabled();
+    }
+
+    public void setEnabled(boolean enabled) {
+      Metrics.setEnabled(enabled);
+    }
+  }
+}
@@ -34,11 +34,22 @@ import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.event.HierarchyEvent;
 import java.awt.event.HierarchyListener;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.swing.JEditorPane;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.event.HyperlinkEvent;
 import javax.swing.text.AbstractDocument;
 import javax.swing.text.AttributeSet;
@@ -47,15 +58,21 @@ import javax.swing.text.StyleConstants;
 import javax.swing.text.View;
 import javax.swing.text.ViewFactory;
 import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLDocument;
 import javax.swing.text.html.HTMLEditorKit;
 import javax.swing.text.html.ObjectView;
 
+import com.google.thingbrowser.api.FetchPriority;
+import com.google.thingbrowser.api.FetchScheduler;
+import com.google.thingbrowser.api.MimeResourceFacet;
 import com.google.thingbrowser.api.Thing;
+import com.google.thingbrowser.api.ThingContext;
 import com.google.thingbrowser.api.ThingContextSingleton;
+import com.google.thingbrowser.api.ThingExecutors;
 import com.google.thingbrowser.api.ThingNavigationEvent;
 import com.google.thingbrowser.api.ThingNavigationListener;
+import com.google.thingbrowser.api.ThingUrl;
 import com.google.thingbrowser.api.ThingView;
-import com.google.thingbrowser.api.UrlUtilities;
 import com.google.thingbrowser.api.ViewFormat;
 
 /**
@@ -100,51 +117,92 @@ public class EmbeddedThingHtmlPane extends JEditorPane {
   }
   
   protected class ThingViewWrapper extends JPanel {
-    public ThingViewWrapper(final ThingView view) {
+    private ThingView view = null;
+    private boolean initialized = false;
+
+    public ThingViewWrapper() {
       setLayout(new GridLayout(1, 1));
-      add((Component)view);
+      add(new JLabel("Loading...", SwingConstants.CENTER));
       this.addHierarchyListener(new HierarchyListener() {
-        private boolean initialized = false;
         public void hierarchyChanged(HierarchyEvent e) {
-          if (getTopLevelAncestor() != null && !initialized) {
-            view.initialize();
-            initialized = true;
-          }
+          maybeInitialize();
         }
       });
     }
+
+    public void setView(ThingView view) {
+      this.view = view;
+      removeAll();
+      add((Component)view);
+      revalidate();
+      repaint();
+      maybeInitialize();
+    }
+
+    private void maybeInitialize() {
+      if (view != null && getTopLevelAncestor() != null && !initialized) {
+        view.initialize();
+        initialized = true;
+      }
+    }
   };
 
+  // An embedded Thing waiting to be resolved.
+  private static class PendingEmbed {
+    public final URL url;
+    public final String fragmentId;
+    public final ThingViewWrapper wrapper;
+
+    public PendingEmbed(URL url, String fragmentId, ThingViewWrapper wrapper) {
+      this.url = url;
+      this.fragmentId = fragmentId;
+      this.wrapper = wrapper;
+    }
+  }
+
+  // Embedded Things whose components were created since the last call to
+  // resolvePendingEmbeds(). Accessed only on the event dispatch thread.
+  private List<PendingEmbed> pendingEmbeds = new ArrayList<PendingEmbed>();
+
+  private final Runnable resolvePendingEmbeds = new Runnable() {
+    public void run() {
+      resolvePendingEmbeds();
+    }
+  };
+
+  // The page set by setPage(Thing), and the facet it is read through. Set on
+  // the event dispatch thread before the page is loaded.
+  private ThingUrl pageUrl = null;
+  private MimeResourceFacet pageFacet = null;
+
   protected class EmbeddedThingView extends ObjectView {
     public EmbeddedThingView(Element element) {
       super(element);
     }
 
+    // Swing creates the components of a page one at a time as it lays the
+    // page out, so rather than resolve each Thing here, we return a
+    // placeholder and resolve all the Things of the page in one batch.
     protected Component createComponent() {
-      Object[] urlAndFragment = getThingUrlAndFragment();
-      Thing thing = ThingContextSingleton.getThingContext().
-          getThingResolverRegistry().
-          getThing(ThingContextSingleton.getThingContext(), 
-                   (URL)urlAndFragment[0]);
-      ThingView thingView = ThingContextSingleton.getThingContext().
-          getThingViewRegistry().newView(ViewFormat.FULL, thing);
-      thingView.addThingNavigationListener(new ThingNavigationListener() {
-        public void navigateToUrl(ThingNavigationEvent e) {
-          fireHyperlinkUpdate(
-              new HyperlinkEvent(this,
-                                 HyperlinkEvent.EventType.ACTIVATED,
-                                 e.getUrl()));
-        }
-      });
-      thingView.setFragmentId((String)urlAndFragment[1]);
+      ThingUrl thingUrl = getThingUrl();
+      ThingViewWrapper wrapper = new ThingViewWrapper();
       Dimension size = getEmbeddedSize();
-      ((Component)thingView).setPreferredSize(size);
-      ((Component)thingView).setMinimumSize(size);
-      ((Component)thingView).setMaximumSize(size);
-      return new ThingViewWrapper(thingView);
+      wrapper.setPreferredSize(size);
+      wrapper.setMinimumSize(size);
+      wrapper.setMaximumSize(size);
+
+      if (pendingEmbeds.isEmpty()) {
+        SwingUtilities.invokeLater(resolvePendingEmbeds);
+      }
+      pendingEmbeds.add(new PendingEmbed(
+          thingUrl.getBase().toUrl(),
+          thingUrl.getFragmentId(),
+          wrapper));
+
+      return wrapper;
     }
 
-    private Object[] getThingUrlAndFragment() {
+    private ThingUrl getThingUrl() {
       Object attributeValue =
         getElement().getAttributes().getAttribute(THINGURL_ATTR);
       URL url;
@@ -159,7 +217,7 @@ public class EmbeddedThingHtmlPane extends JEditorPane {
       } else {
         url = null;
       }
-      return UrlUtilities.splitUrlAndFragment(url);
+      return ThingUrl.valueOf(url);
     }
     
     private Dimension getEmbeddedSize() {
@@ -175,4 +233,142 @@ public class EmbeddedThingHtmlPane extends JEditorPane {
     setContentType("text/html");
     setEditorKit(new EmbeddedThingEditorKit());
   }
+
+  /**
+   * @return the URLs of the hyperlinks in the page, in document order.
+   */
+  public List<URL> getLinks() {
+    List<URL> links = new ArrayList<URL>();
+    if (!(getDocument() instanceof HTMLDocument)) return links;
+
+    HTMLDocument document = (HTMLDocument)getDocument();
+    for (HTMLDocument.Iterator i = document.getIterator(HTML.Tag.A); i.isValid(); i.next()) {
+      Object href = i.getAttributes().getAttribute(HTML.Attribute.HREF);
+      if (href == null) continue;
+      try {
+        links.add(new URL(document.getBase(), href.toString()));
+      } catch (MalformedURLException e) {
+        // Not a link anyone could follow, so leave it out
+      }
+    }
+    return links;
+  }
+
+  /**
+   * Show the page of a Thing, read through its MimeResourceFacet rather than
+   * over a connection of our own, so that it comes from the resource cache
+   * where possible and renders while it is still downloading.
+   *
+   * @param thing a Thing with an HTML page.
+   *
+   * @throws IOException if the page could not be loaded.
+   */
+  public void setPage(Thing thing) throws IOException {
+    pageFacet = thing.getFacet(MimeResourceFacet.class);
+    pageUrl = ThingUrl.valueOf(thing.getUrl());
+    setPage(thing.getUrl());
+  }
+
+  protected InputStream getStream(URL page) throws IOException {
+    MimeResourceFacet mimeFacet = pageFacet;
+    if (mimeFacet == null || !ThingUrl.valueOf(page).equals(pageUrl)) {
+      return super.getStream(page);
+    }
+
+    // As JEditorPane does with the headers of its own connections, take the
+    // content type, and so the charset to read the page in, from the response.
+    final String contentType = getContentTypeFor(mimeFacet.getMimeType());
+    if (contentType != null) {
+      Runnable setContentType = new Runnable() {
+        public void run() {
+          setContentType(contentType);
+        }
+      };
+      if (SwingUtilities.isEventDispatchThread()) {
+        setContentType.run();
+      } else {
+        try {
+          SwingUtilities.invokeAndWait(setContentType);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        } catch (InvocationTargetException e) {
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    }
+
+    return mimeFacet.newInputStream();
+  }
+
+  // Our own content type with the parameters, such as the charset, of the
+  // type the page was served with. We keep our own type, since a different
+  // one would replace our editor kit, and with it the Thing embeddings.
+  private String getContentTypeFor(String mimeType) {
+    if (mimeType == null) return null;
+    int index = mimeType.indexOf(';');
+    if (index == -1) return null;
+    return getContentType() + mimeType.substring(index);
+  }
+
+  private void resolvePendingEmbeds() {
+    final List<PendingEmbed> embeds = pendingEmbeds;
+    pendingEmbeds = new ArrayList<PendingEmbed>();
+
+    List<URL> urls = new ArrayList<URL>(embeds.size());
+    for (PendingEmbed embed : embeds) {
+      urls.add(embed.url);
+    }
+
+    ThingContext thingContext = ThingContextSingleton.getThingContext();
+    final List<Future<Thing>> things;
+    FetchPriority previous = FetchScheduler.setCurrentPriority(FetchPriority.VISIBLE);
+    try {
+      things = thingContext.getThingResolverRegistry().getThings(thingContext, urls);
+    } finally {
+      FetchScheduler.setCurrentPriority(previous);
+    }
+
+    // Wait for the results on a worker thread, and show each embedded Thing
+    // as soon as it, and those before it on the page, have been resolved.
+    ThingExecutors.getWorkerExecutor().execute(new Runnable() {
+      public void run() {
+        for (int i = 0; i < embeds.size(); i++) {
+          Thing thing;
+          try {
+            thing = things.get(i).get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          } catch (ExecutionException e) {
+            e.getCause().printStackTrace(System.err);
+            continue;
+          }
+          if (thing != null) {
+            ThingContextSingleton.getThingContext().getThingViewRegistry().startModulesFor(thing);
+            showEmbed(embeds.get(i), thing);
+          }
+        }
+      }
+    });
+  }
+
+  private void showEmbed(final PendingEmbed embed, final Thing thing) {
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        ThingView thingView = ThingContextSingleton.getThingContext().
+            getThingViewRegistry().newView(ViewFormat.FULL, thing);
+        thingView.addThingNavigationListener(new ThingNavigationListener() {
+          public void navigateToUrl(ThingNavigationEvent e) {
+            fireHyperlinkUpdate(
+                new HyperlinkEvent(this,
+                                   HyperlinkEvent.EventType.ACTIVATED,
+                                   e.getUrl()));
+          }
+        });
+        thingView.setFragmentId(embed.fragmentId);
+        embed.wrapper.setView(thingView);
+      }
+    });
+  }
 }
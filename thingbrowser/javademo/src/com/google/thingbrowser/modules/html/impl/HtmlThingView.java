@@ -52,6 +52,12 @@ public class HtmlThingView extends AbstractThingView {
     }
   };
   
+  private final PropertyChangeListener pageListener = new PropertyChangeListener() {
+    public void propertyChange(PropertyChangeEvent e) {
+      setContentLinks(htmlComponent.getLinks());
+    }
+  };
+
   private EmbeddedThingHtmlPane htmlComponent;
 
   public HtmlThingView(Thing model) {
@@ -69,6 +75,8 @@ public class HtmlThingView extends AbstractThingView {
     
     htmlComponent = new EmbeddedThingHtmlPane();
     htmlComponent.setEditable(false);
+    // Fired once the page has been loaded
+    htmlComponent.addPropertyChangeListener("page", pageListener);
 
     getContentPane().setLayout(new GridLayout(1, 1));
     getContentPane().add(new JScrollPane(htmlComponent));
@@ -91,7 +99,7 @@ public class HtmlThingView extends AbstractThingView {
     // the page would not know its own base URL and could thus not load stuff
     // like images with a base URL. This loses generality.
     try {
-      htmlComponent.setPage(getModel().getUrl());
+      htmlComponent.setPage(getModel());
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
@@ -31,37 +31,24 @@ package com.google.thingbrowser.modules.html.impl;
 
 import com.google.thingbrowser.api.AbstractFacet;
 import com.google.thingbrowser.api.MimeResourceFacet;
+import com.google.thingbrowser.api.MimeUtilities;
 import com.google.thingbrowser.api.Thing;
 import com.google.thingbrowser.modules.html.HtmlFacet;
 
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.io.StringWriter;
-
 /**
  *
  * @author ihab@google.com (Ihab Awad)
  */
 public class MimeHtmlFacetImpl extends AbstractFacet implements HtmlFacet {
 
-  private static final int BUFFER_SIZE = 4096;
-
   public MimeHtmlFacetImpl(Thing thing) {
     super(thing);
   }
 
   public String getHtml() {
     MimeResourceFacet mimeFacet = getThing().getFacet(MimeResourceFacet.class);
-    Reader r = new InputStreamReader(mimeFacet.newInputStream());
-    StringWriter s = new StringWriter();
-    char buf[] = new char[BUFFER_SIZE];
-    try {
-      for (int k = 0; (k = r.read(buf)) > 0; ) {
-        s.write(buf, 0, k);
-      }
-    } catch (Exception e) {
-      throw new Error(e);
-    }
-    return s.toString();
+    // Pages served without a charset are in the HTTP default for text.
+    return MimeUtilities.getCharset(mimeFacet.getMimeType(), MimeUtilities.DEFAULT_TEXT_CHARSET)
+        .decode(mimeFacet.getByteBuffer()).toString();
   }
 }
@@ -0,0 +1,72 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.modules.images.impl;
+
+import java.nio.ByteBuffer;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An <code>ImageInputStream</code> reading from a <code>ByteBuffer</code>.
+ * Unlike the streams <code>ImageIO</code> creates around an
+ * <code>InputStream</code>, it seeks within the buffer rather than copying
+ * what it has read into a memory or file cache.
+ *
+ * @author ihab@google.com (Ihab Awad)
+ */
+class ByteBufferImageInputStream extends ImageInputStreamImpl {
+
+  private final ByteBuffer buffer;
+
+  ByteBufferImageInputStream(ByteBuffer buffer) {
+    this.buffer = buffer.slice();
+  }
+
+  public int read() {
+    if (streamPos >= buffer.limit()) return -1;
+    bitOffset = 0;
+    return buffer.get((int)streamPos++) & 0xff;
+  }
+
+  public int read(byte[] b, int off, int len) {
+    if (len == 0) return 0;
+    if (streamPos >= buffer.limit()) return -1;
+    bitOffset = 0;
+    len = (int)Math.min(len, buffer.limit() - streamPos);
+    buffer.position((int)streamPos);
+    buffer.get(b, off, len);
+    streamPos += len;
+    return len;
+  }
+
+  public long length() {
+    return buffer.limit();
+  }
+}
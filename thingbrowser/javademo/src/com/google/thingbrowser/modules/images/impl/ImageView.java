@@ -30,12 +30,18 @@
 package com.google.thingbrowser.modules.images.impl;
 
 import java.awt.GridLayout;
+import java.awt.Image;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
 
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import javax.swing.JScrollPane;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 import com.google.thingbrowser.api.AbstractThingView;
+import com.google.thingbrowser.api.AsyncCallback;
 import com.google.thingbrowser.api.Thing;
 import com.google.thingbrowser.modules.images.ImageFacet;
 
@@ -45,16 +51,45 @@ import com.google.thingbrowser.modules.images.ImageFacet;
  */
 public class ImageView extends AbstractThingView {
 
+  private final JLabel imageLabel = new JLabel("Loading...", SwingConstants.CENTER);
+  private final Future<ImageFacet> pendingImageFacet;
+
   public ImageView(Thing model) {
     super(model);
+    // Start decoding right away, rather than waiting for initialize().
+    pendingImageFacet = model.getFacetAsync(ImageFacet.class, new AsyncCallback<ImageFacet>() {
+      public void onSuccess(ImageFacet result) {
+        final Image image = result.getImage();
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            imageLabel.setText(null);
+            imageLabel.setIcon(new ImageIcon(image));
+          }
+        });
+      }
+      public void onFailure(Throwable caught) {
+        // Cancelled because the Thing no longer needs the facet, not a failure
+        if (caught instanceof CancellationException) return;
+        caught.printStackTrace(System.err);
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            imageLabel.setText("Unable to load image");
+          }
+        });
+      }
+    });
   }
 
   public void initialize() {
     super.initialize();
     getContentPane().setLayout(new GridLayout(1, 1));
-    getContentPane().add(new JScrollPane(new JLabel(new ImageIcon(getModel().getFacet(ImageFacet.class).getImage()))));
+    getContentPane().add(new JScrollPane(imageLabel));
   }
 
   public void dispose() {
+    // The facet is built once for all views of the Thing, so interrupting it
+    // would abort I/O that others are waiting on; once cancelled, the result
+    // is not passed to our callback.
+    pendingImageFacet.cancel(false);
   }
 }
@@ -35,6 +35,7 @@ import java.util.Iterator;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import com.google.thingbrowser.api.AbstractFacet;
 import com.google.thingbrowser.api.MimeResourceFacet;
@@ -70,8 +71,14 @@ public class MimeImageFacetImpl extends AbstractFacet implements ImageFacet {
     ImageReader reader = (ImageReader)readers.next();
 
     try {
-      reader.setInput(ImageIO.createImageInputStream(mimeFacet.newInputStream()));
-      image = reader.read(0);
+      ImageInputStream iis = new ByteBufferImageInputStream(mimeFacet.getByteBuffer());
+      try {
+        reader.setInput(iis);
+        image = reader.read(0);
+      } finally {
+        reader.dispose();
+        iis.close();
+      }
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
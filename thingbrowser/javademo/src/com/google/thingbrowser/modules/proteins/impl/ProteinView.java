@@ -30,6 +30,7 @@
 package com.google.thingbrowser.modules.proteins.impl;
 
 import com.google.thingbrowser.api.AbstractThingView;
+import com.google.thingbrowser.api.AsyncCallback;
 import com.google.thingbrowser.api.Thing;
 import com.google.thingbrowser.modules.images.ImageFacet;
 import com.google.thingbrowser.modules.proteins.ProteinFacet;
@@ -39,6 +40,12 @@ import com.google.thingbrowser.modules.proteins.impl.model.VisitableStructure;
 import java.awt.GridLayout;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+import javax.swing.JLabel;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 
 /**
  * The "3D" view of the protein
@@ -48,25 +55,57 @@ import java.awt.event.MouseEvent;
 public class ProteinView extends AbstractThingView {
 
   private GlowingBalls balls;
+  private boolean initialized = false;
+  private VisitableStructure structure = null;
+  private final Future<ProteinFacet> pendingProteinFacet;
 
 	public ProteinView(Thing model) {
 		super(model);
+    // Parsing the structure is slow, so start right away rather than in
+    // initialize(), and do it on a worker thread.
+    pendingProteinFacet = model.getFacetAsync(ProteinFacet.class, new AsyncCallback<ProteinFacet>() {
+      public void onSuccess(ProteinFacet result) {
+        final VisitableStructure structure = result.getStructure();
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            setStructure(structure);
+          }
+        });
+      }
+      public void onFailure(Throwable caught) {
+        // Cancelled because the Thing no longer needs the facet, not a failure
+        if (caught instanceof CancellationException) return;
+        caught.printStackTrace(System.err);
+      }
+    });
 	}
 
 	public void initialize() {
 		super.initialize();
 
-		ProteinFacet proteinFacet = getModel().getFacet(ProteinFacet.class);
-		VisitableStructure structure = proteinFacet.getStructure();
+    getContentPane().setLayout(new GridLayout(1, 1));
+    getContentPane().add(new JLabel("Loading...", SwingConstants.CENTER));
+
+    initialized = true;
+    if (structure != null) showStructure();
+	}
+
+  private void setStructure(VisitableStructure structure) {
+    this.structure = structure;
+    if (initialized) showStructure();
+  }
+
+  private void showStructure() {
     balls = new GlowingBalls(structure);
 
-    getContentPane().setLayout(new GridLayout(1, 1));
+    getContentPane().removeAll();
 		getContentPane().add(balls.getCanvas3D());
+    getContentPane().validate();
 
     balls.getCanvas3D().addMouseListener(new MouseAdapter() {
       public void mouseReleased(MouseEvent e) { refreshImage(); }
     });
-	}
+  }
 
   private void refreshImage() {
     ((ProteinImageFacetImpl)getModel().getFacet(ImageFacet.class)).
@@ -74,5 +113,9 @@ public class ProteinView extends AbstractThingView {
   }
 
 	public void dispose() {
+    // The facet is built once for all views of the Thing, so interrupting it
+    // would abort I/O that others are waiting on; once cancelled, the result
+    // is not passed to our callback.
+    pendingProteinFacet.cancel(false);
 	}
 }
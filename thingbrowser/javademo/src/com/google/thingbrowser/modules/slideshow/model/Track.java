@@ -45,7 +45,7 @@ public class Track<T extends TrackElement> extends ModelObject {
     new ModelList<T>(
         new ArrayList<T>(),
         "elements",
-        getPropertyChangeSupport());
+        this);
 
   public Track() {
   }
@@ -52,7 +52,7 @@ public class VisualTrackElement extends TrackElement {
     new ModelList<Keypoint>(
         new ArrayList<Keypoint>(),
         "intermediaries",
-        getPropertyChangeSupport());
+        this);
   private Thing filterThing = null;
   private Image filteredImage = null;
 
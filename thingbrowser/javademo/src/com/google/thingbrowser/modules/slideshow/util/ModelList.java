@@ -29,11 +29,15 @@
 
 package com.google.thingbrowser.modules.slideshow.util;
 
-import java.beans.PropertyChangeSupport;
 import java.util.AbstractList;
+import java.util.Collection;
 import java.util.List;
 
+import com.google.thingbrowser.api.ModelEventBus;
+
 /**
+ * A List that fires a property change of its owner whenever it is modified.
+ * Bulk modifications fire a single change.
  *
  * @author ihab@google.com (Ihab Awad)
  */
@@ -41,12 +45,12 @@ public class ModelList<T> extends AbstractList<T> {
 
   private final List<T> backingList;
   private final String propertyName;
-  private final PropertyChangeSupport pcs;
+  private final ModelObject owner;
 
-  public ModelList(List<T> backingList, String propertyName, PropertyChangeSupport pcs) {
+  public ModelList(List<T> backingList, String propertyName, ModelObject owner) {
     this.backingList = backingList;
     this.propertyName = propertyName;
-    this.pcs = pcs;
+    this.owner = owner;
   }
 
   public T get(int index) {
@@ -59,18 +63,64 @@ public class ModelList<T> extends AbstractList<T> {
 
   public T set(int index, T element) {
     T result = backingList.set(index, element);
-    pcs.firePropertyChange(propertyName, null, null);
+    owner.firePropertyChange(propertyName, null, null);
     return result;
   }
 
   public void add(int index, T element) {
     backingList.add(index, element);
-    pcs.firePropertyChange(propertyName, null, null);
+    owner.firePropertyChange(propertyName, null, null);
   }
 
   public T remove(int index) {
     T result = backingList.remove(index);
-    pcs.firePropertyChange(propertyName, null, null);
+    owner.firePropertyChange(propertyName, null, null);
     return result;
   }
+
+  public boolean addAll(Collection<? extends T> c) {
+    ModelEventBus.getInstance().beginTransaction();
+    try {
+      return super.addAll(c);
+    } finally {
+      ModelEventBus.getInstance().endTransaction();
+    }
+  }
+
+  public boolean addAll(int index, Collection<? extends T> c) {
+    ModelEventBus.getInstance().beginTransaction();
+    try {
+      return super.addAll(index, c);
+    } finally {
+      ModelEventBus.getInstance().endTransaction();
+    }
+  }
+
+  public boolean removeAll(Collection<?> c) {
+    ModelEventBus.getInstance().beginTransaction();
+    try {
+      return super.removeAll(c);
+    } finally {
+      ModelEventBus.getInstance().endTransaction();
+    }
+  }
+
+  public boolean retainAll(Collection<?> c) {
+    ModelEventBus.getInstance().beginTransaction();
+    try {
+      return super.retainAll(c);
+    } finally {
+      ModelEventBus.getInstance().endTransaction();
+    }
+  }
+
+  // clear() removes through this too.
+  protected void removeRange(int fromIndex, int toIndex) {
+    ModelEventBus.getInstance().beginTransaction();
+    try {
+      super.removeRange(fromIndex, toIndex);
+    } finally {
+      ModelEventBus.getInstance().endTransaction();
+    }
+  }
 }
@@ -32,6 +32,8 @@ package com.google.thingbrowser.modules.slideshow.util;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 
+import com.google.thingbrowser.api.ModelEventBus;
+
 /**
  *
  * @author ihab@google.com (Ihab Awad)
@@ -57,7 +59,7 @@ public class ModelObject {
   }
 
   protected void firePropertyChange(String name, Object oldValue, Object newValue) {
-    pcs.firePropertyChange(name, oldValue, newValue);
+    ModelEventBus.getInstance().fire(pcs, this, name, oldValue, newValue);
   }
 
   protected PropertyChangeSupport getPropertyChangeSupport() {
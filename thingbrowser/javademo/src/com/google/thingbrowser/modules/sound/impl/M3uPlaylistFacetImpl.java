@@ -29,18 +29,22 @@
 
 package com.google.thingbrowser.modules.sound.impl;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import com.google.thingbrowser.api.AbstractFacet;
+import com.google.thingbrowser.api.FetchPriority;
+import com.google.thingbrowser.api.FetchScheduler;
 import com.google.thingbrowser.api.MimeResourceFacet;
+import com.google.thingbrowser.api.MimeUtilities;
 import com.google.thingbrowser.api.Thing;
+import com.google.thingbrowser.api.ThingContext;
 import com.google.thingbrowser.api.ThingContextSingleton;
 import com.google.thingbrowser.modules.sound.PlaylistFacet;
 
@@ -62,19 +66,56 @@ public class M3uPlaylistFacetImpl extends AbstractFacet implements PlaylistFacet
   }
 
   private void initializeEntries() {
-    BufferedReader br = new BufferedReader(new InputStreamReader(getThing().getFacet(MimeResourceFacet.class).newInputStream()));
+    ThingContext thingContext = ThingContextSingleton.getThingContext();
+    List<Future<Thing>> things;
+    // Resolving the entries starts downloading them, which should not hold
+    // up whatever the user is looking at.
+    FetchPriority previous = FetchScheduler.setCurrentPriority(FetchPriority.PREFETCH);
+    try {
+      things = thingContext.getThingResolverRegistry().getThings(thingContext, readUrls());
+    } finally {
+      FetchScheduler.setCurrentPriority(previous);
+    }
 
-    while (true) {
-      String line;
-      try {
-        line = br.readLine();
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
+    boolean interrupted = false;
+    try {
+      for (Future<Thing> future : things) {
+        Thing thing = null;
+        while (true) {
+          try {
+            thing = future.get();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          } catch (ExecutionException e) {
+            // Leave out entries that could not be resolved, as we do for
+            // entries with no resolver, rather than losing the whole playlist.
+            e.getCause().printStackTrace(System.err);
+            break;
+          }
+        }
 
-      if (line == null) {
-        break;
+        if (thing != null) {
+          entries.add(thing);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
       }
+    }
+  }
+
+  private List<URL> readUrls() {
+    List<URL> urls = new ArrayList<URL>();
+    MimeResourceFacet mimeFacet = getThing().getFacet(MimeResourceFacet.class);
+    // M3U files are Latin-1 unless served as otherwise.
+    CharBuffer chars = MimeUtilities.getCharset(
+        mimeFacet.getMimeType(), MimeUtilities.DEFAULT_TEXT_CHARSET).decode(
+        mimeFacet.getByteBuffer());
+
+    while (chars.hasRemaining()) {
+      String line = nextLine(chars);
 
       if (line.length() == 0 || line.startsWith("#")) {
         continue;
@@ -87,11 +128,33 @@ public class M3uPlaylistFacetImpl extends AbstractFacet implements PlaylistFacet
         throw new RuntimeException(e);
       }
 
-      Thing thing = ThingContextSingleton.getThingContext().getThingResolverRegistry().getThing(ThingContextSingleton.getThingContext(), url);
+      urls.add(url);
+    }
+
+    return urls;
+  }
+
+  /**
+   * Return the line starting at the position of the given buffer, and move
+   * the position past its terminator, which may be "\n", "\r" or "\r\n" as
+   * for <code>BufferedReader.readLine()</code>.
+   */
+  private static String nextLine(CharBuffer chars) {
+    int start = chars.position();
+    int end = start;
 
-      if (thing != null) {
-        entries.add(thing);
+    while (chars.hasRemaining()) {
+      char c = chars.get();
+      if (c == '\n') break;
+      if (c == '\r') {
+        if (chars.hasRemaining() && chars.get(chars.position()) == '\n') {
+          chars.get();
+        }
+        break;
       }
+      end++;
     }
+
+    return chars.duplicate().position(start).limit(end).toString();
   }
 }
@@ -51,6 +51,8 @@ public class MP3MimeSoundFacetImpl extends AbstractFacet implements SoundFacet {
   }
 
   public InputStream newInputStream() {
+    // Stream rather than map the resource, so that playback can start while
+    // the rest of it is still downloading.
     return getThing().getFacet(MimeResourceFacet.class).newInputStream();
   }
 
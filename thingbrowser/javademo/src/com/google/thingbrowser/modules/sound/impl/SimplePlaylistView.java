@@ -36,13 +36,21 @@ import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.LayoutManager;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
 
 import javax.swing.BorderFactory;
 import javax.swing.JComponent;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 
 import com.google.thingbrowser.api.AbstractThingView;
+import com.google.thingbrowser.api.AsyncCallback;
 import com.google.thingbrowser.api.Thing;
 import com.google.thingbrowser.api.ThingNavigationEvent;
 import com.google.thingbrowser.api.ThingNavigationListener;
@@ -111,24 +119,37 @@ public class SimplePlaylistView extends AbstractThingView {
     }
   };
 
+  private final JPanel panel = new JPanel();
+  private final Future<PlaylistFacet> pendingPlaylistFacet;
+
   public SimplePlaylistView(Thing model) {
     super(model);
+    // Reading the playlist resolves all its entries, so start right away.
+    pendingPlaylistFacet = model.getFacetAsync(PlaylistFacet.class, new AsyncCallback<PlaylistFacet>() {
+      public void onSuccess(final PlaylistFacet result) {
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            showEntries(result);
+          }
+        });
+      }
+      public void onFailure(Throwable caught) {
+        // Cancelled because the Thing no longer needs the facet, not a failure
+        if (caught instanceof CancellationException) return;
+        caught.printStackTrace(System.err);
+      }
+    });
   }
 
   public void initialize() {
     super.initialize();
 
-    PlaylistFacet playlistFacet = getModel().getFacet(PlaylistFacet.class);
-
-    JPanel panel = new JPanel();
     panel.setBackground(Color.white);
     panel.setLayout(layout);
     panel.setBorder(BorderFactory.createLineBorder(Color.white, 3));
 
-    for (Thing thing : playlistFacet.getEntries()) {
-      UrlLinkComponent urlLinkComponent = new UrlLinkComponent(this, thing);
-      urlLinkComponent.addThingNavigationListener(thingNavigationListener);
-      panel.add(urlLinkComponent);
+    if (!pendingPlaylistFacet.isDone()) {
+      panel.add(new JLabel("Loading..."));
     }
 
     getContentPane().setLayout(new GridLayout(1, 1));
@@ -136,5 +157,25 @@ public class SimplePlaylistView extends AbstractThingView {
   }
 
   public void dispose() {
+    // The facet is built once for all views of the Thing, so interrupting it
+    // would abort I/O that others are waiting on; once cancelled, the result
+    // is not passed to our callback.
+    pendingPlaylistFacet.cancel(false);
+  }
+
+  private void showEntries(PlaylistFacet playlistFacet) {
+    panel.removeAll();
+
+    List<URL> links = new ArrayList<URL>();
+    for (Thing thing : playlistFacet.getEntries()) {
+      UrlLinkComponent urlLinkComponent = new UrlLinkComponent(this, thing);
+      urlLinkComponent.addThingNavigationListener(thingNavigationListener);
+      panel.add(urlLinkComponent);
+      links.add(thing.getUrl());
+    }
+    setContentLinks(links);
+
+    panel.revalidate();
+    panel.repaint();
   }
 }
@@ -34,6 +34,7 @@ import com.google.thingbrowser.api.AbstractThing;
 import com.google.thingbrowser.api.Facet;
 import com.google.thingbrowser.api.ThingContext;
 import com.google.thingbrowser.api.ThingContextSingleton;
+import com.google.thingbrowser.api.ThingUrl;
 import com.google.thingbrowser.modules.stickies.StickiesFacet;
 
 import java.net.URL;
@@ -59,7 +60,8 @@ public class Stickies extends AbstractThing {
 
   public static final Stickies getInstance() { return instance; }
 
-  private final Map<URL, Sticky> stickyByUrl = new HashMap<URL, Sticky>();
+  // Keyed by ThingUrl, since hashing a java.net.URL may resolve its host.
+  private final Map<ThingUrl, Sticky> stickyByUrl = new HashMap<ThingUrl, Sticky>();
   private final List<Sticky> stickies = new ArrayList<Sticky>();
 
   private Stickies() {
@@ -79,10 +81,11 @@ public class Stickies extends AbstractThing {
   }
 
   public Sticky getSticky(ThingContext thingContext, URL url) {
-    Sticky result = stickyByUrl.get(url);
+    ThingUrl key = ThingUrl.valueOf(url);
+    Sticky result = stickyByUrl.get(key);
     if (result == null) {
       result = new Sticky(thingContext, url);
-      stickyByUrl.put(url, result);
+      stickyByUrl.put(key, result);
       stickies.add(result);
       firePropertyChange("stickies", null, null);
     }
@@ -90,9 +93,10 @@ public class Stickies extends AbstractThing {
   }
 
   public void deleteSticky(URL url) {
-    Sticky sticky = stickyByUrl.get(url);
+    ThingUrl key = ThingUrl.valueOf(url);
+    Sticky sticky = stickyByUrl.get(key);
     if (sticky != null) {
-      stickyByUrl.remove(url);
+      stickyByUrl.remove(key);
       stickies.remove(sticky);
       firePropertyChange("stickies", null, null);
     }
@@ -103,8 +107,8 @@ public class Stickies extends AbstractThing {
   }
 
   // This method is to fire "some" sort of change to allow aggregate views
-  // of the Stickies to update themselves. We should replace this with a more
-  // sane pub/sub event mechanism for model to view events at some later date.
+  // of the Stickies to update themselves. Repeated calls within one
+  // transaction of the ModelEventBus are coalesced into a single change.
   protected void fireChange() {
     firePropertyChange("stickies", null, null);
   }
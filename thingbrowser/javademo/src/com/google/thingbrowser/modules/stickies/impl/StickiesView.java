@@ -39,6 +39,9 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.AbstractListModel;
 import javax.swing.BorderFactory;
@@ -85,6 +88,7 @@ public class StickiesView extends AbstractThingView {
       // TODO(ihab): listModel should fire an event instead...
       list.setModel(emptyListModel);
       list.setModel(listModel);
+      updateContentLinks();
     }
   };
 
@@ -116,6 +120,7 @@ public class StickiesView extends AbstractThingView {
     cellLabel.setForeground(Color.blue);
 
     getModel().addPropertyChangeListener(modelListener);
+    updateContentLinks();
   }
 
   public Stickies getModel() {
@@ -125,4 +130,12 @@ public class StickiesView extends AbstractThingView {
   public void dispose() {
     getModel().removePropertyChangeListener(modelListener);
   }
+
+  private void updateContentLinks() {
+    List<URL> links = new ArrayList<URL>();
+    for (Sticky sticky : getModel().getStickies()) {
+      links.add(sticky.getUrl());
+    }
+    setContentLinks(links);
+  }
 }
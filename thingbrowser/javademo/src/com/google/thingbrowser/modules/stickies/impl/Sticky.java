@@ -32,6 +32,7 @@ package com.google.thingbrowser.modules.stickies.impl;
 import com.google.thingbrowser.api.AbstractFacet;
 import com.google.thingbrowser.api.AbstractThing;
 import com.google.thingbrowser.api.Facet;
+import com.google.thingbrowser.api.ModelEventBus;
 import com.google.thingbrowser.api.ThingContext;
 import com.google.thingbrowser.modules.stickies.StickyFacet;
 
@@ -92,11 +93,16 @@ public class Sticky extends AbstractThing {
   }
 
   public void setText(String text) {
-    this.text = text;
-    this.lastModified = new Date(System.currentTimeMillis());
-    updateThingInfo();
-    firePropertyChange("text", null, null);
-    firePropertyChange("lastModified", null, null);
+    ModelEventBus.getInstance().beginTransaction();
+    try {
+      this.text = text;
+      this.lastModified = new Date(System.currentTimeMillis());
+      updateThingInfo();
+      firePropertyChange("text", null, null);
+      firePropertyChange("lastModified", null, null);
+    } finally {
+      ModelEventBus.getInstance().endTransaction();
+    }
   }
 
   public StickyColor getColor() {
@@ -104,11 +110,16 @@ public class Sticky extends AbstractThing {
   }
 
   public void setColor(StickyColor color) {
-    this.color = color;
-    this.lastModified = new Date(System.currentTimeMillis());
-    updateThingInfo();
-    firePropertyChange("color", null, null);
-    firePropertyChange("lastModified", null, null);
+    ModelEventBus.getInstance().beginTransaction();
+    try {
+      this.color = color;
+      this.lastModified = new Date(System.currentTimeMillis());
+      updateThingInfo();
+      firePropertyChange("color", null, null);
+      firePropertyChange("lastModified", null, null);
+    } finally {
+      ModelEventBus.getInstance().endTransaction();
+    }
   }
 
   public Date getLastModified() {
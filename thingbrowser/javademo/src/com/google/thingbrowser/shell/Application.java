@@ -31,20 +31,56 @@ package com.google.thingbrowser.shell;
 
 import javax.swing.UIManager;
 
+import com.google.thingbrowser.api.ModuleDescriptor;
+import com.google.thingbrowser.api.ThingContext;
+import com.google.thingbrowser.api.ThingContextSingleton;
+import com.google.thingbrowser.modules.html.HtmlFacet;
+import com.google.thingbrowser.modules.images.ImageFacet;
+import com.google.thingbrowser.modules.images.ImageFilterFacet;
+import com.google.thingbrowser.modules.proteins.ProteinFacet;
+import com.google.thingbrowser.modules.slideshow.model.ComposedMovieFacet;
+import com.google.thingbrowser.modules.sound.PlaylistFacet;
+import com.google.thingbrowser.modules.sound.SoundFacet;
+import com.google.thingbrowser.modules.stickies.StickiesFacet;
+import com.google.thingbrowser.modules.stickies.StickyFacet;
+
 /**
  *
  * @author ihab@google.com (Ihab Awad)
  */
 public class Application {
 
-  private static final Class[] startupClasses = {
-    com.google.thingbrowser.modules.html.Startup.class,
-    com.google.thingbrowser.modules.imagefilters.Startup.class,
-    com.google.thingbrowser.modules.images.Startup.class,
-    com.google.thingbrowser.modules.slideshow.Startup.class,
-    com.google.thingbrowser.modules.proteins.Startup.class,
-    com.google.thingbrowser.modules.sound.Startup.class,
-    com.google.thingbrowser.modules.stickies.Startup.class,
+  // Modules are started on demand, the first time one of the capabilities
+  // declared here is needed, so these declarations must match what the
+  // Startup class of each module registers.
+  private static final ModuleDescriptor[] modules = {
+    new ModuleDescriptor("html", "com.google.thingbrowser.modules.html.Startup")
+        .addMimeType("text/html")
+        .addUrlExtension("html")
+        .addFacetType(HtmlFacet.class),
+    new ModuleDescriptor("imagefilters", "com.google.thingbrowser.modules.imagefilters.Startup")
+        .addResolverRootUrl("http://imagefilters.example.com/"),
+    new ModuleDescriptor("images", "com.google.thingbrowser.modules.images.Startup")
+        .addMimeType("image/*")
+        .addFacetType(ImageFacet.class)
+        .addFacetType(ImageFilterFacet.class),
+    new ModuleDescriptor("slideshow", "com.google.thingbrowser.modules.slideshow.Startup")
+        .addResolverRootUrl("http://slideshow.example.com/")
+        .addFacetType(ComposedMovieFacet.class),
+    new ModuleDescriptor("proteins", "com.google.thingbrowser.modules.proteins.Startup")
+        .addMimeType("chemical/x-pdb")
+        .addUrlExtension("pdb")
+        .addFacetType(ProteinFacet.class),
+    new ModuleDescriptor("sound", "com.google.thingbrowser.modules.sound.Startup")
+        .addMimeType("audio/mpeg")
+        .addMimeType("audio/x-mpegurl")
+        .addUrlExtension("m3u")
+        .addFacetType(SoundFacet.class)
+        .addFacetType(PlaylistFacet.class),
+    new ModuleDescriptor("stickies", "com.google.thingbrowser.modules.stickies.Startup")
+        .addResolverRootUrl("http://stickies.example.com/")
+        .addFacetType(StickyFacet.class)
+        .addFacetType(StickiesFacet.class),
   };
 
   public static void main(String[] argv) {
@@ -55,12 +91,11 @@ public class Application {
   }
 
   public static void startup() {
-    for (int i = 0; i < startupClasses.length; i++) {
-      try {
-        ((Runnable)startupClasses[i].newInstance()).run();
-      } catch (Exception e) {
-        throw new Error(e);
-      }
+    ThingContext thingContext = ThingContextSingleton.getThingContext();
+    for (ModuleDescriptor module : modules) {
+      thingContext.getThingResolverRegistry().registerModule(module);
+      thingContext.getMimeFacetRegistry().registerModule(module);
+      thingContext.getThingViewRegistry().registerModule(module);
     }
   }
 }
@@ -0,0 +1,257 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.shell;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.google.thingbrowser.api.FetchPriority;
+import com.google.thingbrowser.api.FetchScheduler;
+import com.google.thingbrowser.api.LinkSource;
+import com.google.thingbrowser.api.MimeResourceFacet;
+import com.google.thingbrowser.api.Thing;
+import com.google.thingbrowser.api.ThingContext;
+import com.google.thingbrowser.api.ThingExecutors;
+import com.google.thingbrowser.api.ThingView;
+import com.google.thingbrowser.api.ThingUrl;
+import com.google.thingbrowser.api.metrics.Metrics;
+
+/**
+ * Fetches the Things linked from the current view before the user asks for
+ * them, so that following a link is usually served from the caches.
+ *
+ * <p>Links are taken from views that are {@link LinkSource}s, in the order
+ * they give them, and resolved in the background at
+ * {@link FetchPriority#PREFETCH}, which starts downloading their resources.
+ * The Things are held until the next navigation, so that the resolver cache
+ * does not drop them before they are wanted.
+ *
+ * <p>Prefetching is bounded by the system properties
+ * <code>thingbrowser.prefetch.maxBytes</code> (default 8 MB), the number of
+ * bytes of resources it may start downloading for one view;
+ * <code>thingbrowser.prefetch.concurrency</code> (default 2), the number of
+ * links resolved at once; and <code>thingbrowser.prefetch.maxLinks</code>
+ * (default 32), the number of links it considers for one view. A resource
+ * whose length is not known in advance is not charged against the byte
+ * budget, but is counted against the links. A resource that would take the
+ * total over the budget is cancelled.
+ *
+ * <p>Navigating away cancels all prefetching, except of the Thing navigated
+ * to, which is left to finish so that the navigation can use it.
+ */
+class LinkPrefetcher {
+
+  private static final long MAX_BYTES =
+      Long.getLong("thingbrowser.prefetch.maxBytes", 8 * 1024 * 1024);
+  private static final int CONCURRENCY =
+      Integer.getInteger("thingbrowser.prefetch.concurrency", 2);
+  private static final int MAX_LINKS =
+      Integer.getInteger("thingbrowser.prefetch.maxLinks", 32);
+
+  private final PropertyChangeListener linksListener = new PropertyChangeListener() {
+    public void propertyChange(PropertyChangeEvent e) {
+      addLinks(((LinkSource)e.getSource()).getLinks());
+    }
+  };
+
+  private final ThingContext thingContext;
+  private LinkSource source = null;
+  private ThingUrl sourceUrl = null;
+  private final LinkedList<ThingUrl> pending = new LinkedList<ThingUrl>();
+  private final Set<ThingUrl> seen = new HashSet<ThingUrl>();
+  private final Map<ThingUrl, Future<Void>> running = new HashMap<ThingUrl, Future<Void>>();
+  private final Map<ThingUrl, Thing> prefetched = new HashMap<ThingUrl, Thing>();
+  private long bytesStarted = 0;
+  private int generation = 0;
+
+  public LinkPrefetcher(ThingContext thingContext) {
+    this.thingContext = thingContext;
+  }
+
+  /**
+   * Start prefetching the links of a view, if it is a {@link LinkSource}.
+   *
+   * @param view the view now being shown.
+   * @param url the URL of the Thing it shows.
+   */
+  public void setView(ThingView view, ThingUrl url) {
+    cancel(url);
+    synchronized (this) {
+      sourceUrl = url.getBase();
+      if (!(view instanceof LinkSource)) return;
+      source = (LinkSource)view;
+      view.addPropertyChangeListener("links", linksListener);
+    }
+    addLinks(((LinkSource)view).getLinks());
+  }
+
+  /**
+   * Stop prefetching for the current view, and let go of what was fetched,
+   * except for the Thing about to be shown, whose requests are raised to
+   * {@link FetchPriority#VISIBLE} in case it is still being fetched.
+   *
+   * @param target the URL about to be shown, or <code>null</code>.
+   */
+  public void cancel(ThingUrl target) {
+    Set<ThingUrl> cancelled = new HashSet<ThingUrl>();
+
+    synchronized (this) {
+      generation++;
+
+      if (source != null) {
+        ((ThingView)source).removePropertyChangeListener("links", linksListener);
+        source = null;
+      }
+      sourceUrl = null;
+      pending.clear();
+      seen.clear();
+      bytesStarted = 0;
+
+      for (Map.Entry<ThingUrl, Future<Void>> entry : running.entrySet()) {
+        if (entry.getKey().equals(target)) continue;
+        // Cancelling the permits below stops the work cleanly; interrupting
+        // it could leave it anywhere.
+        entry.getValue().cancel(false);
+        cancelled.add(entry.getKey());
+      }
+      running.clear();
+
+      // The bodies of resources keep downloading after their Things resolve.
+      cancelled.addAll(prefetched.keySet());
+      cancelled.remove(target);
+      Thing kept = (target == null) ? null : prefetched.get(target);
+      prefetched.clear();
+      if (kept != null) prefetched.put(target, kept);
+    }
+
+    if (target != null) {
+      FetchScheduler.getDefault().raise(Collections.singleton(target), FetchPriority.VISIBLE);
+    }
+
+    if (!cancelled.isEmpty()) {
+      Metrics.count("PrefetchCancel", LinkPrefetcher.class, cancelled.size());
+      FetchScheduler.getDefault().cancel(FetchPriority.PREFETCH, cancelled);
+    }
+  }
+
+  private synchronized void addLinks(List<URL> links) {
+    for (URL link : links) {
+      if (seen.size() >= MAX_LINKS) break;
+      ThingUrl url = ThingUrl.valueOf(link).getBase();
+      if (url.equals(sourceUrl) || !seen.add(url)) continue;
+      pending.add(url);
+    }
+    startPending();
+  }
+
+  private synchronized void startPending() {
+    while (running.size() < CONCURRENCY && bytesStarted < MAX_BYTES && !pending.isEmpty()) {
+      final ThingUrl url = pending.removeFirst();
+      final int taskGeneration = generation;
+
+      FetchPriority previous = FetchScheduler.setCurrentPriority(FetchPriority.PREFETCH);
+      try {
+        running.put(url, ThingExecutors.submit(
+            ThingExecutors.getIoExecutor(),
+            new Callable<Void>() {
+              public Void call() {
+                try {
+                  prefetch(url, taskGeneration);
+                } finally {
+                  finished(url, taskGeneration);
+                }
+                return null;
+              }
+            },
+            null));
+      } finally {
+        FetchScheduler.setCurrentPriority(previous);
+      }
+    }
+  }
+
+  private void prefetch(ThingUrl url, int taskGeneration) {
+    String host = url.toUrl().getHost();
+    Thing thing;
+    try {
+      thing = thingContext.getThingResolverRegistry().getThing(thingContext, url.toUrl());
+      if (thing == null) return;
+
+      synchronized (this) {
+        if (taskGeneration != generation) return;
+        prefetched.put(url, thing);
+      }
+
+      // Finding out the Facets of the Thing fetches the headers of its
+      // resource, and starts downloading its body.
+      if (!thing.getFacetTypes().contains(MimeResourceFacet.class)) return;
+      long length = thing.getFacet(MimeResourceFacet.class).getContentLength();
+      if (length < 0) return;
+
+      synchronized (this) {
+        if (taskGeneration != generation) return;
+        if (bytesStarted + length <= MAX_BYTES) {
+          bytesStarted += length;
+          Metrics.count("PrefetchBytes", host, length);
+          return;
+        }
+        // Once over budget, start nothing more for this view.
+        bytesStarted = MAX_BYTES;
+        pending.clear();
+        prefetched.remove(url);
+      }
+      Metrics.count("PrefetchOverBudget", host, 1);
+      List<ThingUrl> cancelled = new ArrayList<ThingUrl>();
+      cancelled.add(url);
+      FetchScheduler.getDefault().cancel(FetchPriority.PREFETCH, cancelled);
+    } catch (RuntimeException e) {
+      // A failed prefetch costs only the time spent on it; the navigation, if
+      // any, will try again and report the failure.
+      Metrics.count("PrefetchError", host, 1);
+    }
+  }
+
+  private synchronized void finished(ThingUrl url, int taskGeneration) {
+    if (taskGeneration != generation) return;
+    running.remove(url);
+    startPending();
+  }
+}
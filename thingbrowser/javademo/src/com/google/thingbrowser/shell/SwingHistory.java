@@ -36,6 +36,8 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.google.thingbrowser.api.ThingUrl;
+
 /**
  *
  * @author ihab@google.com (Ihab Awad)
@@ -43,7 +45,7 @@ import java.util.List;
 public class SwingHistory {
 
   private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
-  private final List<URL> list = new ArrayList<URL>();
+  private final List<ThingUrl> list = new ArrayList<ThingUrl>();
   private int current = -1;
 
   public SwingHistory() {
@@ -57,6 +59,10 @@ public class SwingHistory {
   }
 
   public void go(URL url) {
+    go(ThingUrl.valueOf(url));
+  }
+
+  public void go(ThingUrl url) {
 
     if (url == null) return;
 
@@ -83,6 +89,11 @@ public class SwingHistory {
   }
 
   public URL getCurrent() {
+    ThingUrl url = getCurrentThingUrl();
+    return (url == null) ? null : url.toUrl();
+  }
+
+  public ThingUrl getCurrentThingUrl() {
     if (current == -1) return null;
     return list.get(current);
   }
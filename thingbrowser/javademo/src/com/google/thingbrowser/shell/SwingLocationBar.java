@@ -164,7 +164,7 @@ public abstract class SwingLocationBar extends JPanel {
   }
 
   public void stop() {
-    // Nothing to do
+    if (currentView != null) currentView.stop();
   }
 
   public void home() {
@@ -33,20 +33,23 @@ import java.awt.Component;
 import java.awt.GridLayout;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.net.URL;
+import java.util.concurrent.Future;
 
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
+import com.google.thingbrowser.api.AsyncCallback;
 import com.google.thingbrowser.api.Thing;
 import com.google.thingbrowser.api.ThingContext;
 import com.google.thingbrowser.api.ThingContextSingleton;
 import com.google.thingbrowser.api.ThingNavigationEvent;
 import com.google.thingbrowser.api.ThingNavigationListener;
+import com.google.thingbrowser.api.ThingUrl;
 import com.google.thingbrowser.api.ThingView;
-import com.google.thingbrowser.api.UrlUtilities;
 import com.google.thingbrowser.api.ViewFormat;
+import com.google.thingbrowser.api.metrics.Metrics;
 
 /**
  * A <code>BrowserView</code> is a component that displays one <code>Thing</code>
@@ -84,7 +87,7 @@ public class SwingThingBrowserView extends JPanel {
     public void propertyChange(PropertyChangeEvent e) {
       if (currentThing == null) return;
       listeningToHistory = false;
-      getHistory().go(UrlUtilities.joinUrlAndFragment(currentThing.getUrl(), currentThingView.getFragmentId()));
+      getHistory().go(ThingUrl.valueOf(currentThing.getUrl()).withFragmentId(currentThingView.getFragmentId()));
       listeningToHistory = true;
     }
   };
@@ -93,12 +96,16 @@ public class SwingThingBrowserView extends JPanel {
   private Thing currentThing = null;
   private ThingView currentThingView = null;
   private boolean listeningToHistory = true;
+  private Future<Thing> pendingThing = null;
+  private int navigationCount = 0;
   private final ThingContext thingContext;
+  private final LinkPrefetcher prefetcher;
   private Icon icon = DEFAULT_ICON;
   private String displayName = DEFAULT_DISPLAY_NAME;
 
   public SwingThingBrowserView() {
     this.thingContext = ThingContextSingleton.getThingContext(); // TODO(ihab): Dependency injection
+    this.prefetcher = new LinkPrefetcher(thingContext);
     history.addPropertyChangeListener("current", new PropertyChangeListener() {
       public void propertyChange(PropertyChangeEvent e) {
         if (listeningToHistory) {
@@ -140,6 +147,17 @@ public class SwingThingBrowserView extends JPanel {
   public void reload() {
     if (currentThing != null) currentThing.reload();
   }
+
+  public void stop() {
+    if (pendingThing != null) {
+      // Other callers may be resolving the same URL along with us, so we must
+      // not interrupt the resolution; bumping navigationCount below makes us
+      // discard its result when it arrives.
+      pendingThing.cancel(false);
+      pendingThing = null;
+    }
+    navigationCount++;
+  }
   
   private void cleanup() {
 
@@ -159,25 +177,65 @@ public class SwingThingBrowserView extends JPanel {
 
   private void newUrl() {
 
-    URL url = history.getCurrent();
-    Object[] urlAndFragment = UrlUtilities.splitUrlAndFragment(url);
+    ThingUrl url = history.getCurrentThingUrl();
+    final String fragmentId = url.getFragmentId();
 
-    if (currentThingView != null && currentThing != null && urlAndFragment[0].equals(currentThing.getUrl())) {
-      currentThingView.setFragmentId((String)urlAndFragment[1]);
+    if (currentThingView != null && currentThing != null &&
+        url.getBase().equals(ThingUrl.valueOf(currentThing.getUrl()))) {
+      currentThingView.setFragmentId(fragmentId);
       ensureLayout();
       return;
     }
 
+    stop();
+    // Free the network for the Thing we are going to, which may itself have
+    // been prefetched.
+    prefetcher.cancel(url.getBase());
     cleanup();
 
-    currentThing = ThingContextSingleton.getThingContext().getThingResolverRegistry().getThing(thingContext, (URL)urlAndFragment[0]);
-
     setDisplayName(null);
+    setIcon(null);
+
+    // Resolving the Thing, and finding out what Facets it has, may involve
+    // the network, so we do it in the background and come back to the event
+    // dispatch thread only to build the view.
+    final int navigation = navigationCount;
+    pendingThing = thingContext.getThingResolverRegistry().getThingAsync(
+        thingContext,
+        url.getBase().toUrl(),
+        new AsyncCallback<Thing>() {
+          public void onSuccess(final Thing thing) {
+            try {
+              if (thing != null) {
+                thing.getFacetTypes();
+                thingContext.getThingViewRegistry().startModulesFor(thing);
+              }
+            } catch (Throwable t) {
+              onFailure(t);
+              return;
+            }
+            SwingUtilities.invokeLater(new Runnable() {
+              public void run() {
+                if (navigation != navigationCount) return;
+                pendingThing = null;
+                showThing(thing, fragmentId);
+              }
+            });
+          }
+          public void onFailure(Throwable caught) {
+            caught.printStackTrace(System.err);
+          }
+        });
+  }
+
+  private void showThing(Thing thing, String fragmentId) {
+
+    currentThing = thing;
+
     if (currentThing != null) {
       setDisplayName(currentThing.getDisplayName());
     }
 
-    setIcon(null);
     if (currentThing != null && currentThing.getIcon() != null) {
       setIcon(new ImageIcon(currentThing.getIcon()));
     }
@@ -187,17 +245,24 @@ public class SwingThingBrowserView extends JPanel {
     currentThing.addPropertyChangeListener("displayName", thingDisplayNameListener);
     currentThing.addPropertyChangeListener("icon", thingIconListener);
 
-    currentThingView = ThingContextSingleton.getThingContext().getThingViewRegistry().newView(ViewFormat.FULL, currentThing);
+    currentThingView = thingContext.getThingViewRegistry().newView(ViewFormat.FULL, currentThing);
 
     if (currentThingView == null) return;
 
-    currentThingView.setFragmentId((String)urlAndFragment[1]);
+    currentThingView.setFragmentId(fragmentId);
     add((Component)currentThingView);
 
     currentThingView.addThingNavigationListener(viewNavigationListener);
     currentThingView.addPropertyChangeListener("fragmentId", fragmentIdListener);
 
-    currentThingView.initialize();
+    long startTime = Metrics.startTimer();
+    try {
+      currentThingView.initialize();
+    } finally {
+      Metrics.stopTimer(startTime, "ViewInitialize", currentThingView.getClass());
+    }
+
+    prefetcher.setView(currentThingView, ThingUrl.valueOf(currentThing.getUrl()));
 
     ensureLayout();
 
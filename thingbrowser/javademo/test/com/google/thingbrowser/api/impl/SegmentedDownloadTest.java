@@ -0,0 +1,218 @@
+// Copyright (C) 2007 Google Inc.
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are
+// met:
+//
+//     * Redistributions of source code must retain the above copyright
+// notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above
+// copyright notice, this list of conditions and the following disclaimer
+// in the documentation and/or other materials provided with the
+// distribution.
+//     * Neither the name of Google Inc. nor the names of its
+// contributors may be used to endorse or promote products derived from
+// this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+// "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+// LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+// A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+// OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+// SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+// LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+// DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+// THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+// OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+package com.google.thingbrowser.api.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.thingbrowser.api.FetchPriority;
+import com.google.thingbrowser.api.FetchScheduler;
+import com.google.thingbrowser.api.ThingUrl;
+import com.google.thingbrowser.api.impl.cache.CacheEntryMetadata;
+import com.google.thingbrowser.api.impl.cache.DiskCache;
+import com.google.thingbrowser.api.impl.cache.EntryLock;
+import com.google.thingbrowser.api.impl.cache.MemoryCache;
+import com.google.thingbrowser.api.impl.cache.PartialEntry;
+
+/**
+ * Checks that a download whose segment fails in an unexpected way releases
+ * its entry and fails its readers, rather than leaving them waiting.
+ *
+ * <p>Run with the classes of the browser on the class path; it exits with a
+ * non-zero status if a check fails.
+ */
+public final class SegmentedDownloadTest {
+
+  private static final int BODY_BYTES = 256 * 1024;
+  private static final long TIMEOUT_SECONDS = 10;
+
+  private final File directory;
+  private final DiskCache cache;
+  private final File source;
+
+  private SegmentedDownloadTest() throws IOException {
+    directory = File.createTempFile("thingbrowser", ".test");
+    directory.delete();
+    cache = new DiskCache(directory, 16 * 1024 * 1024, 100, new MemoryCache(0, 0));
+
+    source = File.createTempFile("thingbrowser", ".body");
+    source.deleteOnExit();
+    OutputStream out = new FileOutputStream(source);
+    try {
+      byte[] body = new byte[BODY_BYTES];
+      for (int i = 0; i < body.length; i++) {
+        body[i] = (byte)i;
+      }
+      out.write(body);
+    } finally {
+      out.close();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    SegmentedDownloadTest test = new SegmentedDownloadTest();
+    test.testCompletes();
+    test.testSegmentThrowingMidStream();
+    System.out.println("SegmentedDownloadTest passed");
+    System.exit(0);
+  }
+
+  private void testCompletes() throws Exception {
+    URL url = new URL("http://segmented.example.com/complete");
+    PartialEntry download = startDownload(url, -1);
+
+    awaitComplete(download);
+    check(!download.hasFailed(), "download completed");
+    check(cache.getBodyFile(keyFor(url)).length() == BODY_BYTES, "body committed whole");
+    releaseLock(url);
+  }
+
+  private void testSegmentThrowingMidStream() throws Exception {
+    URL url = new URL("http://segmented.example.com/throws");
+    PartialEntry download = startDownload(url, BODY_BYTES / 2);
+
+    final InputStream in = download.newInputStream();
+    FutureTask<Long> reader = new FutureTask<Long>(new Callable<Long>() {
+      public Long call() throws IOException {
+        long total = 0;
+        try {
+          byte[] buffer = new byte[8192];
+          int n;
+          while ((n = in.read(buffer)) >= 0) {
+            total += n;
+          }
+        } finally {
+          in.close();
+        }
+        return total;
+      }
+    });
+    try {
+      await(reader);
+      fail("reader saw the whole body of a failed download");
+    } catch (ExecutionException e) {
+      check(e.getCause() instanceof IOException, "reader failed with an IOException");
+    }
+
+    try {
+      awaitComplete(download);
+      fail("download completed although its segment threw");
+    } catch (ExecutionException e) {
+      check(e.getCause() instanceof IOException, "awaitComplete failed with an IOException");
+    }
+    check(download.hasFailed(), "download failed");
+    releaseLock(url);
+  }
+
+  // Start downloading the source file as the body of a URL, from a stream
+  // that throws a RuntimeException after a number of bytes, if not -1.
+  private PartialEntry startDownload(URL url, final long failAfter) throws Exception {
+    URLConnection connection = source.toURI().toURL().openConnection();
+    CacheEntryMetadata metadata = CacheEntryMetadata.fromConnection(connection);
+    EntryLock lock = cache.tryLock(keyFor(url));
+    check(lock != null, "entry unlocked before the download");
+    PartialEntry download = cache.beginPartial(lock, metadata);
+
+    InputStream is = new FilterInputStream(new FileInputStream(source)) {
+      private long position = 0;
+
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (failAfter >= 0 && position >= failAfter) {
+          throw new IllegalStateException("Segment broke at " + position);
+        }
+        if (failAfter >= 0) len = (int)Math.min(len, failAfter - position);
+        int n = super.read(b, off, len);
+        if (n > 0) position += n;
+        return n;
+      }
+    };
+
+    FetchScheduler.Permit permit = FetchScheduler.getDefault().acquire(url, FetchPriority.VISIBLE);
+    SegmentedDownload.start(url, connection, is, permit, download, url.getHost(),
+        System.currentTimeMillis());
+    return download;
+  }
+
+  private static void awaitComplete(final PartialEntry download) throws Exception {
+    FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+      public Object call() throws IOException {
+        download.awaitComplete();
+        return null;
+      }
+    });
+    await(task);
+  }
+
+  // Run a task on a thread of its own, and wait for it, failing if it takes
+  // too long, as it would if the download were left hanging.
+  private static <T> T await(FutureTask<T> task) throws Exception {
+    Thread thread = new Thread(task);
+    thread.setDaemon(true);
+    thread.start();
+    try {
+      return task.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      fail("timed out waiting for the download");
+      return null;
+    }
+  }
+
+  // The download must have given up the lock on its entry.
+  private void releaseLock(URL url) throws IOException {
+    EntryLock lock = cache.tryLock(keyFor(url));
+    check(lock != null, "entry unlocked after the download");
+    lock.release();
+  }
+
+  private static String keyFor(URL url) {
+    return DiskCache.keyFor(ThingUrl.valueOf(url));
+  }
+
+  private static void check(boolean condition, String description) {
+    if (!condition) fail(description);
+  }
+
+  private static void fail(String description) {
+    System.err.println("SegmentedDownloadTest failed: " + description);
+    System.exit(1);
+  }
+}